@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A list of numbers that is backed by a double array. Elements are boxed as BigDecimals - using the shortest decimal
+ * that rounds to the double - when they are accessed as objects. The primitive getters do not box. Values that were
+ * added as integers are remembered as such, so that they are boxed and written as integers, e.g. [1, 2.5] rather than
+ * [1.0, 2.5].
+ *
+ * @author Matthew Lohbihler
+ */
+public class JDoubleList extends JPrimitiveList {
+    private static final long serialVersionUID = 1L;
+
+    private double[] values;
+    // The indexes of the values that were added as integers. Created on demand.
+    private BitSet integers;
+
+    public JDoubleList() {
+        values = new double[10];
+    }
+
+    public JDoubleList(final double... values) {
+        this.values = values.clone();
+        count = values.length;
+    }
+
+    public JDoubleList addDouble(final double value) {
+        if (isPrimitive()) {
+            if (count == values.length)
+                values = Arrays.copyOf(values, Math.max(10, count + (count >> 1)));
+            if (integers != null)
+                integers.clear(count);
+            values[count++] = value;
+        } else {
+            add(toBigDecimal(value));
+        }
+        return this;
+    }
+
+    /**
+     * Adds an integer, which must be within +/-2^53 so that the double represents it exactly.
+     */
+    JDoubleList addInteger(final long value) {
+        if (isPrimitive()) {
+            addDouble(value);
+            if (integers == null)
+                integers = new BitSet();
+            integers.set(count - 1);
+        } else {
+            add(BigDecimal.valueOf(value));
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the value at the given index was added as an integer. Only meaningful while the list is
+     *         primitive.
+     */
+    boolean isInteger(final int index) {
+        return integers != null && integers.get(index);
+    }
+
+    /**
+     * @return a copy of the values in this list.
+     */
+    public double[] toDoubleArray() {
+        if (isPrimitive())
+            return Arrays.copyOf(values, count);
+        final double[] result = new double[size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = getDouble(i);
+        return result;
+    }
+
+    @Override
+    public byte getByte(final int index) {
+        return (byte) getLong(index);
+    }
+
+    @Override
+    public short getShort(final int index) {
+        return (short) getLong(index);
+    }
+
+    @Override
+    public int getInt(final int index) {
+        return (int) getLong(index);
+    }
+
+    @Override
+    public long getLong(final int index) {
+        if (!isPrimitive())
+            return super.getLong(index);
+        return (long) getDouble(index);
+    }
+
+    @Override
+    public float getFloat(final int index) {
+        return (float) getDouble(index);
+    }
+
+    @Override
+    public double getDouble(final int index) {
+        if (!isPrimitive())
+            return super.getDouble(index);
+        checkIndex(index);
+        return values[index];
+    }
+
+    @Override
+    Object box(final int index) {
+        if (isInteger(index))
+            return BigDecimal.valueOf((long) values[index]);
+        return toBigDecimal(values[index]);
+    }
+
+    private static Object toBigDecimal(final double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d))
+            return d;
+        final char[] buf = new char[NumberWriter.BUFFER_SIZE];
+        return new BigDecimal(buf, 0, NumberWriter.writeDouble(d, buf, 0));
+    }
+
+    @Override
+    boolean matches(final int index, final Object o) {
+        final double v = values[index];
+        if (isDouble(o)) {
+            final double d = ((Number) o).doubleValue();
+            return d == v || Double.isNaN(d) && Double.isNaN(v);
+        }
+        if (!(o instanceof Number) || Double.isNaN(v) || Double.isInfinite(v))
+            return false;
+        try {
+            // Compare with the value as it is boxed, so that the answer does not change on inflation.
+            return JUtil.toBigDecimal((Number) o).compareTo((BigDecimal) box(index)) == 0;
+        } catch (final NumberFormatException e) {
+            // NaN or infinite
+            return false;
+        }
+    }
+
+    @Override
+    boolean addPrimitive(final Object value) {
+        if (!isDouble(value))
+            return false;
+        addDouble(((Number) value).doubleValue());
+        return true;
+    }
+
+    @Override
+    boolean setPrimitive(final int index, final Object value) {
+        if (!isDouble(value))
+            return false;
+        values[index] = ((Number) value).doubleValue();
+        if (integers != null)
+            integers.clear(index);
+        return true;
+    }
+
+    private static boolean isDouble(final Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    @Override
+    void release() {
+        values = null;
+        integers = null;
+    }
+
+    @Override
+    public Object clone() {
+        final JDoubleList clone = (JDoubleList) super.clone();
+        if (values != null)
+            clone.values = values.clone();
+        if (integers != null)
+            clone.integers = (BitSet) integers.clone();
+        return clone;
+    }
+}
@@ -27,7 +27,7 @@ public class JList extends ArrayList<Object> {
 
     @SuppressWarnings("unchecked")
     public <T> T jget(final int index) {
-        return (T) super.get(index);
+        return (T) get(index);
     }
 
     public boolean getBoolean(final int index) {
@@ -130,4 +130,12 @@ public class JList extends ArrayList<Object> {
         }
         return !(e1.hasNext() || e2.hasNext());
     }
+
+    /**
+     * Consistent with equals, i.e. lists that contain numerically equal numbers have the same hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(JsonHash.hash64(this));
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * A list of integers that is backed by a long array. Elements are boxed as BigDecimals - the same as the reader would
+ * otherwise produce - when they are accessed as objects. The primitive getters do not box.
+ *
+ * @author Matthew Lohbihler
+ */
+public class JLongList extends JPrimitiveList {
+    private static final long serialVersionUID = 1L;
+
+    private long[] values;
+
+    public JLongList() {
+        values = new long[10];
+    }
+
+    public JLongList(final long... values) {
+        this.values = values.clone();
+        count = values.length;
+    }
+
+    public JLongList addLong(final long value) {
+        if (isPrimitive()) {
+            if (count == values.length)
+                values = Arrays.copyOf(values, Math.max(10, count + (count >> 1)));
+            values[count++] = value;
+        } else {
+            add(BigDecimal.valueOf(value));
+        }
+        return this;
+    }
+
+    /**
+     * @return a copy of the values in this list.
+     */
+    public long[] toLongArray() {
+        if (isPrimitive())
+            return Arrays.copyOf(values, count);
+        final long[] result = new long[size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = getLong(i);
+        return result;
+    }
+
+    @Override
+    public byte getByte(final int index) {
+        return (byte) getLong(index);
+    }
+
+    @Override
+    public short getShort(final int index) {
+        return (short) getLong(index);
+    }
+
+    @Override
+    public int getInt(final int index) {
+        return (int) getLong(index);
+    }
+
+    @Override
+    public long getLong(final int index) {
+        if (!isPrimitive())
+            return super.getLong(index);
+        checkIndex(index);
+        return values[index];
+    }
+
+    @Override
+    public float getFloat(final int index) {
+        return getLong(index);
+    }
+
+    @Override
+    public double getDouble(final int index) {
+        return getLong(index);
+    }
+
+    @Override
+    Object box(final int index) {
+        return BigDecimal.valueOf(values[index]);
+    }
+
+    @Override
+    boolean matches(final int index, final Object o) {
+        if (isLong(o))
+            return values[index] == ((Number) o).longValue();
+        if (!(o instanceof Number))
+            return false;
+        try {
+            return JUtil.toBigDecimal((Number) o).compareTo(BigDecimal.valueOf(values[index])) == 0;
+        } catch (final NumberFormatException e) {
+            // NaN or infinite
+            return false;
+        }
+    }
+
+    @Override
+    boolean addPrimitive(final Object value) {
+        if (!isLong(value))
+            return false;
+        addLong(((Number) value).longValue());
+        return true;
+    }
+
+    @Override
+    boolean setPrimitive(final int index, final Object value) {
+        if (!isLong(value))
+            return false;
+        values[index] = ((Number) value).longValue();
+        return true;
+    }
+
+    private static boolean isLong(final Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    @Override
+    void release() {
+        values = null;
+    }
+
+    @Override
+    public Object clone() {
+        final JLongList clone = (JLongList) super.clone();
+        if (values != null)
+            clone.values = values.clone();
+        return clone;
+    }
+}
@@ -235,4 +235,12 @@ public class JMap extends HashMap<String, Object> {
 
         return true;
     }
+
+    /**
+     * Consistent with equals, i.e. maps that contain numerically equal numbers have the same hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(JsonHash.hash64(this));
+    }
 }
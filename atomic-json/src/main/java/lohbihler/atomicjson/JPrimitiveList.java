@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Base class for lists that hold their numbers in a primitive array rather than as boxed objects. While the list
+ * remains primitive, reads are served directly from the array, and elements are boxed only when they are accessed as
+ * objects. Any change that the primitive array cannot represent - e.g. adding a string - first "inflates" the list,
+ * i.e. moves all values into the regular boxed storage, after which the list behaves like a JList. Searches - indexOf,
+ * contains, remove - compare numbers numerically whether or not the list has been inflated.
+ *
+ * @author Matthew Lohbihler
+ */
+public abstract class JPrimitiveList extends JList {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of values in the primitive array. Only meaningful while the list is not inflated.
+     */
+    protected int count;
+    private boolean inflated;
+
+    /**
+     * @return true if the values are still held in a primitive array, false if the list has been inflated.
+     */
+    public boolean isPrimitive() {
+        return !inflated;
+    }
+
+    /**
+     * Box the primitive value at the given index.
+     */
+    abstract Object box(int index);
+
+    /**
+     * @return true if the value at the given index is numerically equal to the given object, as with JUtil.equals.
+     */
+    abstract boolean matches(int index, Object o);
+
+    /**
+     * Attempt to add the given value to the primitive array.
+     *
+     * @return true if the value was added, false if it cannot be represented.
+     */
+    abstract boolean addPrimitive(Object value);
+
+    /**
+     * Attempt to set the given value in the primitive array.
+     *
+     * @return true if the value was set, false if it cannot be represented.
+     */
+    abstract boolean setPrimitive(int index, Object value);
+
+    /**
+     * Release the primitive array after inflation.
+     */
+    abstract void release();
+
+    /**
+     * Throws if the index is outside of the primitive values.
+     */
+    protected void checkIndex(final int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+    }
+
+    /**
+     * Move all of the values into boxed storage.
+     */
+    protected void inflate() {
+        if (!inflated) {
+            super.ensureCapacity(count);
+            for (int i = 0; i < count; i++)
+                super.add(box(i));
+            inflated = true;
+            count = 0;
+            release();
+        }
+    }
+
+    //
+    // Reads, which are served from the primitive array.
+    //
+    @Override
+    public int size() {
+        return inflated ? super.size() : count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Object get(final int index) {
+        if (inflated)
+            return super.get(index);
+        checkIndex(index);
+        return box(index);
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(final Object o) {
+        final int size = size();
+        for (int i = 0; i < size; i++) {
+            if (elementMatches(i, o))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(final Object o) {
+        for (int i = size() - 1; i >= 0; i--) {
+            if (elementMatches(i, o))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the element at the given index with the given object in the same way whether or not the list has been
+     * inflated, so that searches do not change their answers on inflation.
+     */
+    private boolean elementMatches(final int index, final Object o) {
+        if (!inflated)
+            return o != null && matches(index, o);
+
+        final Object e = super.get(index);
+        if (!(e instanceof Number) || !(o instanceof Number))
+            return e == null ? o == null : e.equals(o);
+        try {
+            return JUtil.toBigDecimal((Number) e).compareTo(JUtil.toBigDecimal((Number) o)) == 0;
+        } catch (final NumberFormatException ex) {
+            // NaN or infinite, which compare as doubles as they do in JDoubleList.
+            final double d1 = ((Number) e).doubleValue();
+            final double d2 = ((Number) o).doubleValue();
+            return d1 == d2 || Double.isNaN(d1) && Double.isNaN(d2);
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        if (inflated)
+            return super.toArray();
+        final Object[] result = new Object[count];
+        for (int i = 0; i < count; i++)
+            result[i] = box(i);
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(final T[] a) {
+        if (inflated)
+            return super.toArray(a);
+        T[] result = a;
+        if (result.length < count)
+            result = (T[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), count);
+        for (int i = 0; i < count; i++)
+            result[i] = (T) box(i);
+        if (result.length > count)
+            result[count] = null;
+        return result;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public ListIterator<Object> listIterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public ListIterator<Object> listIterator(final int index) {
+        if (inflated)
+            return super.listIterator(index);
+        if (index < 0 || index > count)
+            throw new IndexOutOfBoundsException("Index: " + index);
+        return new ListItr(index);
+    }
+
+    @Override
+    public Spliterator<Object> spliterator() {
+        if (inflated)
+            return super.spliterator();
+        return Spliterators.spliterator(this, Spliterator.ORDERED);
+    }
+
+    @Override
+    public void forEach(final Consumer<? super Object> action) {
+        if (inflated) {
+            super.forEach(action);
+        } else {
+            for (int i = 0; i < count; i++)
+                action.accept(box(i));
+        }
+    }
+
+    // The following are declared by List in Java 21, where ArrayList implements them directly on its own storage.
+    public Object getFirst() {
+        if (size() == 0)
+            throw new NoSuchElementException();
+        return get(0);
+    }
+
+    public Object getLast() {
+        if (size() == 0)
+            throw new NoSuchElementException();
+        return get(size() - 1);
+    }
+
+    public Object removeFirst() {
+        if (size() == 0)
+            throw new NoSuchElementException();
+        return remove(0);
+    }
+
+    public Object removeLast() {
+        if (size() == 0)
+            throw new NoSuchElementException();
+        return remove(size() - 1);
+    }
+
+    //
+    // Changes, which inflate the list unless the primitive array can represent the result.
+    //
+    @Override
+    public boolean add(final Object e) {
+        if (!inflated && addPrimitive(e))
+            return true;
+        inflate();
+        return super.add(e);
+    }
+
+    @Override
+    public Object set(final int index, final Object element) {
+        if (!inflated) {
+            checkIndex(index);
+            final Object old = box(index);
+            if (setPrimitive(index, element))
+                return old;
+        }
+        inflate();
+        return super.set(index, element);
+    }
+
+    @Override
+    public void clear() {
+        if (inflated)
+            super.clear();
+        else
+            count = 0;
+    }
+
+    @Override
+    public void add(final int index, final Object element) {
+        inflate();
+        super.add(index, element);
+    }
+
+    @Override
+    public Object remove(final int index) {
+        inflate();
+        return super.remove(index);
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        final int index = indexOf(o);
+        if (index < 0)
+            return false;
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends Object> c) {
+        if (!inflated) {
+            // Add the values one at a time so that the list can remain primitive if possible.
+            for (final Object o : c)
+                add(o);
+            return !c.isEmpty();
+        }
+        return super.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(final int index, final Collection<? extends Object> c) {
+        inflate();
+        return super.addAll(index, c);
+    }
+
+    @Override
+    protected void removeRange(final int fromIndex, final int toIndex) {
+        inflate();
+        super.removeRange(fromIndex, toIndex);
+    }
+
+    @Override
+    public boolean removeAll(final Collection<?> c) {
+        inflate();
+        return super.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(final Collection<?> c) {
+        inflate();
+        return super.retainAll(c);
+    }
+
+    @Override
+    public boolean removeIf(final Predicate<? super Object> filter) {
+        inflate();
+        return super.removeIf(filter);
+    }
+
+    @Override
+    public void replaceAll(final UnaryOperator<Object> operator) {
+        inflate();
+        super.replaceAll(operator);
+    }
+
+    @Override
+    public void sort(final Comparator<? super Object> c) {
+        inflate();
+        super.sort(c);
+    }
+
+    @Override
+    public List<Object> subList(final int fromIndex, final int toIndex) {
+        inflate();
+        return super.subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public void ensureCapacity(final int minCapacity) {
+        if (inflated)
+            super.ensureCapacity(minCapacity);
+    }
+
+    @Override
+    public void trimToSize() {
+        if (inflated)
+            super.trimToSize();
+    }
+
+    /**
+     * A list iterator that goes through the list's public methods, so that any changes it makes inflate the list as
+     * necessary.
+     */
+    private class ListItr implements ListIterator<Object> {
+        private int cursor;
+        private int lastRet = -1;
+
+        ListItr(final int index) {
+            cursor = index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size();
+        }
+
+        @Override
+        public Object next() {
+            if (cursor >= size())
+                throw new NoSuchElementException();
+            lastRet = cursor++;
+            return get(lastRet);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return cursor > 0;
+        }
+
+        @Override
+        public Object previous() {
+            if (cursor <= 0)
+                throw new NoSuchElementException();
+            lastRet = --cursor;
+            return get(lastRet);
+        }
+
+        @Override
+        public int nextIndex() {
+            return cursor;
+        }
+
+        @Override
+        public int previousIndex() {
+            return cursor - 1;
+        }
+
+        @Override
+        public void remove() {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            JPrimitiveList.this.remove(lastRet);
+            cursor = lastRet;
+            lastRet = -1;
+        }
+
+        @Override
+        public void set(final Object e) {
+            if (lastRet < 0)
+                throw new IllegalStateException();
+            JPrimitiveList.this.set(lastRet, e);
+        }
+
+        @Override
+        public void add(final Object e) {
+            JPrimitiveList.this.add(cursor++, e);
+            lastRet = -1;
+        }
+    }
+}
@@ -26,6 +26,14 @@ public class JUtil {
             return (BigDecimal) n;
         if (n instanceof BigInteger)
             return new BigDecimal((BigInteger) n);
+        if (n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte)
+            // Exact, which converting through a double would not be for large longs.
+            return BigDecimal.valueOf(n.longValue());
+        if (n instanceof Double) {
+            // Use the shortest decimal that represents the double, which is not always what Double.toString returns.
+            final char[] buf = new char[NumberWriter.BUFFER_SIZE];
+            return new BigDecimal(buf, 0, NumberWriter.writeDouble(n.doubleValue(), buf, 0));
+        }
         return BigDecimal.valueOf(n.doubleValue());
     }
 
@@ -39,6 +47,8 @@ public class JUtil {
                 mapCopy.put(e.getKey(), deepCopy(e.getValue()));
             }
             copy = (T) mapCopy;
+        } else if (o instanceof JPrimitiveList && ((JPrimitiveList) o).isPrimitive()) {
+            copy = (T) ((JPrimitiveList) o).clone();
         } else if (o instanceof JList) {
             final JList list = (JList) o;
             final JList listCopy = new JList();
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A structural hash of JSON values that is consistent with JUtil.equals: values that are equal produce the same hash,
+ * regardless of map iteration order or how numbers are represented (e.g. 1, 1.0, and 1.00 hash the same). The hash
+ * is computed by walking the value directly, without serializing it.
+ *
+ * Maps are hashed by combining the hashes of their entries in an order-independent way, so keys do not need to be
+ * sorted. Other values are fed into a 128-bit state using mixing steps from MurmurHash3.
+ *
+ * Usage: JsonHash.hash64(doc), or new JsonHash().add(doc1).add(doc2).hash128().
+ *
+ * @author Matthew Lohbihler
+ */
+public class JsonHash {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final long TAG_NULL = 1;
+    private static final long TAG_FALSE = 2;
+    private static final long TAG_TRUE = 3;
+    private static final long TAG_NUMBER = 4;
+    private static final long TAG_BIG_NUMBER = 5;
+    private static final long TAG_STRING = 6;
+    private static final long TAG_LIST = 7;
+    private static final long TAG_MAP = 8;
+    private static final long TAG_OTHER = 9;
+
+    public static long hash64(final Object value) {
+        return new JsonHash().add(value).hash64();
+    }
+
+    public static long[] hash128(final Object value) {
+        return new JsonHash().add(value).hash128();
+    }
+
+    private long h1;
+    private long h2;
+    private long length;
+
+    // Scratch space for the characters of doubles.
+    private char[] numberBuffer;
+    // Used for hashing map entries. Created on demand.
+    private JsonHash entryHash;
+
+    /**
+     * Adds the given value to the hash.
+     *
+     * @param value
+     *            a JSON value, i.e. a map, list, string, number, boolean, or null
+     * @return this
+     */
+    public JsonHash add(final Object value) {
+        if (value == null)
+            update(TAG_NULL);
+        else if (value instanceof String)
+            addString((String) value);
+        else if (value instanceof Number)
+            addNumber((Number) value);
+        else if (value instanceof Boolean)
+            update((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        else if (value instanceof Map)
+            addMap((Map<?, ?>) value);
+        else if (value instanceof List)
+            addList((List<?>) value);
+        else {
+            update(TAG_OTHER);
+            update(value.hashCode());
+        }
+        return this;
+    }
+
+    /**
+     * @return the 64-bit hash of the values added so far
+     */
+    public long hash64() {
+        return hash128()[0];
+    }
+
+    /**
+     * @return the 128-bit hash of the values added so far, as two longs
+     */
+    public long[] hash128() {
+        long a = h1 ^ length;
+        long b = h2 ^ length;
+        a += b;
+        b += a;
+        a = fmix(a);
+        b = fmix(b);
+        a += b;
+        b += a;
+        return new long[] { a, b };
+    }
+
+    private void reset() {
+        h1 = 0;
+        h2 = 0;
+        length = 0;
+    }
+
+    private void update(final long k) {
+        long k1 = k * C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        long k2 = k * C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+
+        length++;
+    }
+
+    private static long fmix(final long k) {
+        long h = k;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void addString(final String s) {
+        final int len = s.length();
+        update(TAG_STRING);
+        update(len);
+        int i = 0;
+        for (; i + 4 <= len; i += 4) {
+            update((long) s.charAt(i) << 48 | (long) s.charAt(i + 1) << 32 | (long) s.charAt(i + 2) << 16
+                    | s.charAt(i + 3));
+        }
+        if (i < len) {
+            long k = 0;
+            for (; i < len; i++)
+                k = k << 16 | s.charAt(i);
+            update(k);
+        }
+    }
+
+    private void addList(final List<?> list) {
+        final int size = list.size();
+        update(TAG_LIST);
+        update(size);
+        if (list instanceof JLongList && ((JLongList) list).isPrimitive()) {
+            final JLongList longs = (JLongList) list;
+            for (int i = 0; i < size; i++)
+                addNumber(longs.getLong(i), 0);
+        } else if (list instanceof JDoubleList && ((JDoubleList) list).isPrimitive()) {
+            final JDoubleList doubles = (JDoubleList) list;
+            for (int i = 0; i < size; i++)
+                addDouble(doubles.getDouble(i));
+        } else {
+            for (final Object o : list)
+                add(o);
+        }
+    }
+
+    private void addMap(final Map<?, ?> map) {
+        if (entryHash == null)
+            entryHash = new JsonHash();
+
+        // Sum the entry hashes so that the result does not depend on the iteration order.
+        long sum1 = 0;
+        long sum2 = 0;
+        for (final Map.Entry<?, ?> e : map.entrySet()) {
+            entryHash.reset();
+            entryHash.add(e.getKey().toString());
+            entryHash.add(e.getValue());
+            final long[] h = entryHash.hash128();
+            sum1 += h[0];
+            sum2 += h[1];
+        }
+
+        update(TAG_MAP);
+        update(map.size());
+        update(sum1);
+        update(sum2);
+    }
+
+    //
+    // Numbers are hashed in their normalized decimal form, i.e. an unscaled value without trailing zeros, and a scale.
+    //
+    private void addNumber(final Number n) {
+        if (n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte) {
+            addNumber(n.longValue(), 0);
+        } else if (n instanceof Double) {
+            addDouble(n.doubleValue());
+        } else {
+            final BigDecimal bd;
+            try {
+                bd = JUtil.toBigDecimal(n);
+            } catch (final NumberFormatException e) {
+                // NaN or infinite
+                update(TAG_OTHER);
+                update(n.hashCode());
+                return;
+            }
+            addBigDecimal(bd);
+        }
+    }
+
+    private void addDouble(final double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            update(TAG_OTHER);
+            update(Double.hashCode(d));
+            return;
+        }
+
+        // Use the shortest decimal, which is also what JUtil.toBigDecimal uses.
+        if (numberBuffer == null)
+            numberBuffer = new char[NumberWriter.BUFFER_SIZE];
+        final int len = NumberWriter.writeDouble(d, numberBuffer, 0);
+
+        long unscaled = 0;
+        int scale = 0;
+        boolean negative = false;
+        boolean fraction = false;
+        int i = 0;
+        for (; i < len; i++) {
+            final char c = numberBuffer[i];
+            if (c == '-')
+                negative = true;
+            else if (c == '.')
+                fraction = true;
+            else if (c == 'E')
+                break;
+            else {
+                unscaled = unscaled * 10 + c - '0';
+                if (fraction)
+                    scale++;
+            }
+        }
+        if (i < len)
+            scale -= Integer.parseInt(new String(numberBuffer, i + 1, len - i - 1));
+
+        addNumber(negative ? -unscaled : unscaled, scale);
+    }
+
+    private void addBigDecimal(final BigDecimal bd) {
+        if (bd.precision() <= 18) {
+            addNumber(bd.unscaledValue().longValue(), bd.scale());
+            return;
+        }
+
+        final BigDecimal stripped = bd.stripTrailingZeros();
+        final BigInteger unscaled = stripped.unscaledValue();
+        if (unscaled.bitLength() < 64) {
+            addNumber(unscaled.longValue(), stripped.scale());
+            return;
+        }
+
+        update(TAG_BIG_NUMBER);
+        update(stripped.scale());
+        final byte[] bytes = unscaled.toByteArray();
+        update(bytes.length);
+        long k = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            k = k << 8 | bytes[i] & 0xFF;
+            if ((i & 7) == 7) {
+                update(k);
+                k = 0;
+            }
+        }
+        if ((bytes.length & 7) != 0)
+            update(k);
+    }
+
+    private void addNumber(final long unscaled, final int scale) {
+        long u = unscaled;
+        int s = scale;
+        if (u == 0) {
+            s = 0;
+        } else {
+            while (u % 10 == 0) {
+                u /= 10;
+                s--;
+            }
+        }
+        update(TAG_NUMBER);
+        update(u);
+        update(s);
+    }
+}
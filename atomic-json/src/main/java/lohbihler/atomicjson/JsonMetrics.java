@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A metrics listener that accumulates totals for all of the readers and writers that it is given to. It is
+ * thread-safe, so a single instance can be shared across an application and polled for export to a monitoring system.
+ *
+ * @author Matthew Lohbihler
+ */
+public class JsonMetrics implements JsonMetricsListener {
+    private final LongAdder documentsRead = new LongAdder();
+    private final LongAdder charactersRead = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder readErrors = new LongAdder();
+    private final AtomicInteger maxReadDepth = new AtomicInteger();
+
+    private final LongAdder documentsWritten = new LongAdder();
+    private final LongAdder charactersWritten = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final AtomicInteger maxWriteDepth = new AtomicInteger();
+
+    @Override
+    public void documentRead(final long characters, final int maxDepth, final long elapsedNanos) {
+        documentsRead.increment();
+        charactersRead.add(characters);
+        readNanos.add(elapsedNanos);
+        maxReadDepth.accumulateAndGet(maxDepth, Math::max);
+    }
+
+    @Override
+    public void readFailed(final long characters, final long elapsedNanos, final Exception e) {
+        readErrors.increment();
+        charactersRead.add(characters);
+        readNanos.add(elapsedNanos);
+    }
+
+    @Override
+    public void documentWritten(final long characters, final int maxDepth, final long elapsedNanos) {
+        documentsWritten.increment();
+        charactersWritten.add(characters);
+        writeNanos.add(elapsedNanos);
+        maxWriteDepth.accumulateAndGet(maxDepth, Math::max);
+    }
+
+    @Override
+    public void writeFailed(final long characters, final long elapsedNanos, final Exception e) {
+        writeErrors.increment();
+        charactersWritten.add(characters);
+        writeNanos.add(elapsedNanos);
+    }
+
+    public long getDocumentsRead() {
+        return documentsRead.sum();
+    }
+
+    public long getCharactersRead() {
+        return charactersRead.sum();
+    }
+
+    public long getReadNanos() {
+        return readNanos.sum();
+    }
+
+    public long getReadErrors() {
+        return readErrors.sum();
+    }
+
+    public int getMaxReadDepth() {
+        return maxReadDepth.get();
+    }
+
+    public long getDocumentsWritten() {
+        return documentsWritten.sum();
+    }
+
+    public long getCharactersWritten() {
+        return charactersWritten.sum();
+    }
+
+    public long getWriteNanos() {
+        return writeNanos.sum();
+    }
+
+    public long getWriteErrors() {
+        return writeErrors.sum();
+    }
+
+    public int getMaxWriteDepth() {
+        return maxWriteDepth.get();
+    }
+
+    @Override
+    public String toString() {
+        return "JsonMetrics [documentsRead=" + getDocumentsRead() + ", charactersRead=" + getCharactersRead()
+                + ", readNanos=" + getReadNanos() + ", readErrors=" + getReadErrors() + ", maxReadDepth="
+                + getMaxReadDepth() + ", documentsWritten=" + getDocumentsWritten() + ", charactersWritten="
+                + getCharactersWritten() + ", writeNanos=" + getWriteNanos() + ", writeErrors=" + getWriteErrors()
+                + ", maxWriteDepth=" + getMaxWriteDepth() + "]";
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+/**
+ * Receives measurements of the documents that a JsonReader or JsonWriter processes. Set an instance with
+ * JsonReader.setMetricsListener or JsonWriter.setMetricsListener. Readers and writers have no listener by default, in
+ * which case nothing is measured.
+ *
+ * Methods are called on the thread that is reading or writing, so implementations should be quick, and thread-safe
+ * if they are shared between readers or writers. All methods do nothing by default. See JsonMetrics for an
+ * implementation that accumulates totals.
+ *
+ * Depth is the maximum nesting of maps and lists in the document, e.g. 0 for a string, 1 for [1,2], and 2 for
+ * {"a":[1,2]}.
+ *
+ * @author Matthew Lohbihler
+ */
+public interface JsonMetricsListener {
+    /**
+     * Called when a document was successfully read.
+     *
+     * @param characters
+     *            the number of characters consumed from the input source, including whitespace and comments
+     * @param maxDepth
+     *            the maximum nesting depth of the document
+     * @param elapsedNanos
+     *            the time taken to read the document
+     */
+    default void documentRead(final long characters, final int maxDepth, final long elapsedNanos) {
+        // no op
+    }
+
+    /**
+     * Called when reading a document failed. The exception is rethrown to the caller after this method returns.
+     *
+     * @param characters
+     *            the number of characters consumed before the failure
+     * @param elapsedNanos
+     *            the time taken before the failure
+     * @param e
+     *            the exception that caused the failure
+     */
+    default void readFailed(final long characters, final long elapsedNanos, final Exception e) {
+        // no op
+    }
+
+    /**
+     * Called when a document was successfully written.
+     *
+     * @param characters
+     *            the number of characters written to the I/O writer
+     * @param maxDepth
+     *            the maximum nesting depth of the document
+     * @param elapsedNanos
+     *            the time taken to write the document
+     */
+    default void documentWritten(final long characters, final int maxDepth, final long elapsedNanos) {
+        // no op
+    }
+
+    /**
+     * Called when writing a document failed. The exception is rethrown to the caller after this method returns.
+     *
+     * @param characters
+     *            the number of characters written before the failure
+     * @param elapsedNanos
+     *            the time taken before the failure
+     * @param e
+     *            the exception that caused the failure
+     */
+    default void writeFailed(final long characters, final long elapsedNanos, final Exception e) {
+        // no op
+    }
+}
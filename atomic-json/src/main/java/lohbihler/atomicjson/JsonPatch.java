@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates and applies patches between JSON documents, so that changes to a document can be sent as deltas rather than
+ * as the whole document. Two formats are supported:
+ *
+ * <ul>
+ * <li>JSON Patch (RFC 6902): a list of operations. Can represent any change.</li>
+ * <li>JSON Merge Patch (RFC 7386): a partial document. Simpler, but cannot set values to null or change elements
+ * within arrays; arrays are always replaced whole.</li>
+ * </ul>
+ *
+ * Values are compared with JUtil.equals, so numbers that are numerically equal are not reported as changes. Patches
+ * are applied in place to the given document.
+ *
+ * @author Matthew Lohbihler
+ */
+public class JsonPatch {
+    public static final String ADD = "add";
+    public static final String REMOVE = "remove";
+    public static final String REPLACE = "replace";
+    public static final String MOVE = "move";
+    public static final String COPY = "copy";
+    public static final String TEST = "test";
+
+    //
+    // JSON Patch
+    //
+
+    /**
+     * Creates the list of operations that converts the source into the target. Arrays are compared by trimming their
+     * common beginnings and ends, and then comparing the remaining elements pairwise, so insertions and removals at a
+     * single position produce minimal patches, while other rearrangements may produce more operations than strictly
+     * necessary.
+     *
+     * @param source
+     *            the original document
+     * @param target
+     *            the changed document
+     * @return the JSON patch, which may be empty
+     */
+    public static JList diff(final Object source, final Object target) {
+        final JList patch = new JList();
+        diff(source, target, "", patch);
+        return patch;
+    }
+
+    private static void diff(final Object source, final Object target, final String path, final JList patch) {
+        if (source instanceof Map && target instanceof Map) {
+            diffMaps((Map<?, ?>) source, (Map<?, ?>) target, path, patch);
+        } else if (source instanceof List && target instanceof List) {
+            diffLists((List<?>) source, (List<?>) target, path, patch);
+        } else if (!JUtil.equals(source, target)) {
+            patch.add(operation(REPLACE, path).put("value", JUtil.deepCopy(target)));
+        }
+    }
+
+    private static void diffMaps(final Map<?, ?> source, final Map<?, ?> target, final String path,
+            final JList patch) {
+        for (final Map.Entry<?, ?> e : source.entrySet()) {
+            final String key = e.getKey().toString();
+            final String childPath = path + '/' + escape(key);
+            if (target.containsKey(key))
+                diff(e.getValue(), target.get(key), childPath, patch);
+            else
+                patch.add(operation(REMOVE, childPath));
+        }
+        for (final Map.Entry<?, ?> e : target.entrySet()) {
+            final String key = e.getKey().toString();
+            if (!source.containsKey(key))
+                patch.add(operation(ADD, path + '/' + escape(key)).put("value", JUtil.deepCopy(e.getValue())));
+        }
+    }
+
+    private static void diffLists(final List<?> source, final List<?> target, final String path, final JList patch) {
+        final int sourceSize = source.size();
+        final int targetSize = target.size();
+
+        // Skip the common prefix and suffix.
+        int start = 0;
+        final int min = Math.min(sourceSize, targetSize);
+        while (start < min && JUtil.equals(source.get(start), target.get(start)))
+            start++;
+        int end = 0;
+        while (end < min - start && JUtil.equals(source.get(sourceSize - 1 - end), target.get(targetSize - 1 - end)))
+            end++;
+
+        // Compare the remainder pairwise.
+        final int sourceRemaining = sourceSize - end - start;
+        final int targetRemaining = targetSize - end - start;
+        final int common = Math.min(sourceRemaining, targetRemaining);
+        for (int i = start; i < start + common; i++)
+            diff(source.get(i), target.get(i), path + '/' + i, patch);
+
+        // Remove the extra source elements from the back, or add the extra target elements.
+        for (int i = start + sourceRemaining - 1; i >= start + common; i--)
+            patch.add(operation(REMOVE, path + '/' + i));
+        for (int i = start + common; i < start + targetRemaining; i++)
+            patch.add(operation(ADD, path + '/' + i).put("value", JUtil.deepCopy(target.get(i))));
+    }
+
+    private static JMap operation(final String op, final String path) {
+        return new JMap().put("op", op).put("path", path);
+    }
+
+    /**
+     * Applies the given JSON patch to the document. The document is changed in place, except when the patch replaces
+     * the root, so the result should always be taken from the return value. Operations are applied in order; if one
+     * fails the document will have been changed by the operations before it.
+     *
+     * @param document
+     *            the document to patch
+     * @param patch
+     *            the list of operations
+     * @return the patched document
+     * @throws JsonPatchException
+     *             if an operation is malformed, refers to a location that does not exist, or fails a test.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T apply(final Object document, final List<?> patch) {
+        Object doc = document;
+        for (final Object o : patch) {
+            if (!(o instanceof Map))
+                throw new JsonPatchException("Operation is not an object: " + o);
+            doc = applyOperation(doc, (Map<?, ?>) o);
+        }
+        return (T) doc;
+    }
+
+    private static Object applyOperation(final Object document, final Map<?, ?> operation) {
+        final Object op = operation.get("op");
+        final String path = member(operation, "path");
+
+        if (ADD.equals(op))
+            return add(document, path, JUtil.deepCopy(value(operation)));
+        if (REMOVE.equals(op)) {
+            if (path.isEmpty())
+                throw new JsonPatchException("Cannot remove the root");
+            new Pointer(document, path).remove();
+            return document;
+        }
+        if (REPLACE.equals(op)) {
+            final Object value = JUtil.deepCopy(value(operation));
+            if (path.isEmpty())
+                return value;
+            new Pointer(document, path).replace(value);
+            return document;
+        }
+        if (MOVE.equals(op)) {
+            final String from = member(operation, "from");
+            if (path.startsWith(from + '/'))
+                throw new JsonPatchException("Cannot move a value into itself: " + from + " to " + path);
+            if (from.equals(path))
+                return document;
+            if (from.isEmpty())
+                throw new JsonPatchException("Cannot move the root");
+            final Object value = new Pointer(document, from).remove();
+            return add(document, path, value);
+        }
+        if (COPY.equals(op)) {
+            final String from = member(operation, "from");
+            return add(document, path, JUtil.deepCopy(get(document, from)));
+        }
+        if (TEST.equals(op)) {
+            final Object value = value(operation);
+            if (!JUtil.equals(get(document, path), value))
+                throw new JsonPatchException("Test failed at " + path);
+            return document;
+        }
+        throw new JsonPatchException("Unknown operation: " + op);
+    }
+
+    private static Object add(final Object document, final String path, final Object value) {
+        if (path.isEmpty())
+            return value;
+        new Pointer(document, path).add(value);
+        return document;
+    }
+
+    private static Object get(final Object document, final String path) {
+        if (path.isEmpty())
+            return document;
+        return new Pointer(document, path).get();
+    }
+
+    private static String member(final Map<?, ?> operation, final String name) {
+        final Object value = operation.get(name);
+        if (!(value instanceof String))
+            throw new JsonPatchException("Operation has no " + name + ": " + operation);
+        return (String) value;
+    }
+
+    private static Object value(final Map<?, ?> operation) {
+        if (!operation.containsKey("value"))
+            throw new JsonPatchException("Operation has no value: " + operation);
+        return operation.get("value");
+    }
+
+    //
+    // JSON Merge Patch
+    //
+
+    /**
+     * Creates the merge patch that converts the source into the target. Keys whose values are set to null in the
+     * target cannot be represented by a merge patch, and will be removed when the patch is applied.
+     *
+     * @param source
+     *            the original document
+     * @param target
+     *            the changed document
+     * @return the merge patch. If both documents are objects this is an object, which is empty if there are no
+     *         differences. Otherwise it is the target.
+     */
+    public static Object mergeDiff(final Object source, final Object target) {
+        if (!(source instanceof Map) || !(target instanceof Map))
+            return JUtil.deepCopy(target);
+
+        final Map<?, ?> s = (Map<?, ?>) source;
+        final Map<?, ?> t = (Map<?, ?>) target;
+        final JMap patch = new JMap();
+
+        for (final Object key : s.keySet()) {
+            if (!t.containsKey(key))
+                patch.put(key.toString(), null);
+        }
+
+        for (final Map.Entry<?, ?> e : t.entrySet()) {
+            final String key = e.getKey().toString();
+            final Object targetValue = e.getValue();
+            if (!s.containsKey(key)) {
+                patch.put(key, JUtil.deepCopy(targetValue));
+            } else {
+                final Object sourceValue = s.get(key);
+                if (sourceValue instanceof Map && targetValue instanceof Map) {
+                    final JMap child = (JMap) mergeDiff(sourceValue, targetValue);
+                    if (!child.isEmpty())
+                        patch.put(key, child);
+                } else if (!JUtil.equals(sourceValue, targetValue)) {
+                    patch.put(key, JUtil.deepCopy(targetValue));
+                }
+            }
+        }
+
+        return patch;
+    }
+
+    /**
+     * Applies the given merge patch to the document. Objects in the document are changed in place, so the result
+     * should always be taken from the return value. Maps that are not JMaps are copied into new JMaps rather than
+     * changed.
+     *
+     * @param document
+     *            the document to patch
+     * @param patch
+     *            the merge patch
+     * @return the patched document
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T mergeApply(final Object document, final Object patch) {
+        if (!(patch instanceof Map))
+            return (T) JUtil.deepCopy(patch);
+
+        final JMap target;
+        if (document instanceof JMap)
+            target = (JMap) document;
+        else {
+            target = new JMap();
+            if (document instanceof Map) {
+                for (final Map.Entry<?, ?> e : ((Map<?, ?>) document).entrySet())
+                    target.put(e.getKey().toString(), e.getValue());
+            }
+        }
+        for (final Map.Entry<?, ?> e : ((Map<?, ?>) patch).entrySet()) {
+            final String key = e.getKey().toString();
+            if (e.getValue() == null)
+                target.remove(key);
+            else
+                target.put(key, mergeApply(target.get(key), e.getValue()));
+        }
+        return (T) target;
+    }
+
+    //
+    // JSON Pointer (RFC 6901)
+    //
+
+    static String escape(final String token) {
+        if (token.indexOf('~') == -1 && token.indexOf('/') == -1)
+            return token;
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+
+    static String unescape(final String token) {
+        if (token.indexOf('~') == -1)
+            return token;
+        return token.replace("~1", "/").replace("~0", "~");
+    }
+
+    /**
+     * A resolved JSON pointer: the container of the referenced value, and the last token of the path.
+     */
+    private static class Pointer {
+        private final String path;
+        private final Object parent;
+        private final String token;
+
+        Pointer(final Object document, final String path) {
+            if (!path.startsWith("/"))
+                throw new JsonPatchException("Invalid path: " + path);
+            this.path = path;
+
+            final List<String> tokens = new ArrayList<>();
+            int start = 1;
+            while (true) {
+                final int slash = path.indexOf('/', start);
+                if (slash == -1) {
+                    tokens.add(unescape(path.substring(start)));
+                    break;
+                }
+                tokens.add(unescape(path.substring(start, slash)));
+                start = slash + 1;
+            }
+
+            Object o = document;
+            for (int i = 0; i < tokens.size() - 1; i++)
+                o = child(o, tokens.get(i));
+            parent = o;
+            token = tokens.get(tokens.size() - 1);
+        }
+
+        private Object child(final Object container, final String t) {
+            if (container instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>) container;
+                if (!map.containsKey(t))
+                    throw new JsonPatchException("Path not found: " + path);
+                return map.get(t);
+            }
+            if (container instanceof List) {
+                final List<?> list = (List<?>) container;
+                final int index = index(t, list.size() - 1);
+                return list.get(index);
+            }
+            throw new JsonPatchException("Path not found: " + path);
+        }
+
+        private int index(final String t, final int max) {
+            final int len = t.length();
+            boolean valid = len > 0 && len < 10 && (len == 1 || t.charAt(0) != '0');
+            for (int i = 0; valid && i < len; i++)
+                valid = t.charAt(i) >= '0' && t.charAt(i) <= '9';
+            if (!valid)
+                throw new JsonPatchException("Invalid array index in path: " + path);
+            final int index = Integer.parseInt(t);
+            if (index > max)
+                throw new JsonPatchException("Array index out of bounds in path: " + path);
+            return index;
+        }
+
+        Object get() {
+            return child(parent, token);
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(final Object value) {
+            if (parent instanceof Map) {
+                ((Map<String, Object>) parent).put(token, value);
+            } else if (parent instanceof List) {
+                final List<Object> list = (List<Object>) parent;
+                if ("-".equals(token))
+                    list.add(value);
+                else
+                    list.add(index(token, list.size()), value);
+            } else {
+                throw new JsonPatchException("Path not found: " + path);
+            }
+        }
+
+        Object remove() {
+            if (parent instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>) parent;
+                if (!map.containsKey(token))
+                    throw new JsonPatchException("Path not found: " + path);
+                return map.remove(token);
+            }
+            if (parent instanceof List) {
+                final List<?> list = (List<?>) parent;
+                return list.remove(index(token, list.size() - 1));
+            }
+            throw new JsonPatchException("Path not found: " + path);
+        }
+
+        @SuppressWarnings("unchecked")
+        void replace(final Object value) {
+            if (parent instanceof Map) {
+                final Map<String, Object> map = (Map<String, Object>) parent;
+                if (!map.containsKey(token))
+                    throw new JsonPatchException("Path not found: " + path);
+                map.put(token, value);
+            } else if (parent instanceof List) {
+                final List<Object> list = (List<Object>) parent;
+                list.set(index(token, list.size() - 1), value);
+            } else {
+                throw new JsonPatchException("Path not found: " + path);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+public class JsonPatchException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public JsonPatchException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public JsonPatchException(final String message) {
+        super(message);
+    }
+}
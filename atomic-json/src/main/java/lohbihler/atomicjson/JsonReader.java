@@ -14,10 +14,27 @@ import java.io.StringReader;
 import java.math.BigDecimal;
 
 public class JsonReader {
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
     private final Reader reader;
     private final ParsePositionTracker tracker;
     private final int maxCharacterCount;
 
+    /**
+     * Whether arrays that contain only numbers should be stored in primitive arrays. See JLongList and JDoubleList.
+     */
+    private boolean primitiveArrays = false;
+
+    /**
+     * Receives measurements of each document that is read. Null, i.e. nothing is measured, by default.
+     */
+    private JsonMetricsListener metricsListener;
+
+    // The current and maximum nesting depth of the document being read.
+    private int depth;
+    private int maxDepth;
+
     /**
      * Convert a string of JSON data into a type graph.
      *
@@ -52,6 +69,45 @@ public class JsonReader {
         this.maxCharacterCount = maxCharacterCount;
     }
 
+    public JsonReader withPrimitiveArrays(final boolean primitiveArrays) {
+        setPrimitiveArrays(primitiveArrays);
+        return this;
+    }
+
+    public boolean isPrimitiveArrays() {
+        return primitiveArrays;
+    }
+
+    /**
+     * When set, arrays that contain only integers are read into a JLongList, and arrays that contain only numbers
+     * that survive conversion to a double and back (i.e. no more than 15 significant digits, which is not the same as
+     * being represented exactly) are read into a JDoubleList. Other
+     * arrays are read into a JList as usual.
+     *
+     * @param primitiveArrays
+     */
+    public void setPrimitiveArrays(final boolean primitiveArrays) {
+        this.primitiveArrays = primitiveArrays;
+    }
+
+    public JsonReader withMetricsListener(final JsonMetricsListener metricsListener) {
+        setMetricsListener(metricsListener);
+        return this;
+    }
+
+    public JsonMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Sets the listener that is told about each document that is read, or null to stop measuring.
+     *
+     * @param metricsListener
+     */
+    public void setMetricsListener(final JsonMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
     /**
      * Read the next value from the input source.
      *
@@ -60,7 +116,27 @@ public class JsonReader {
      */
     @SuppressWarnings("unchecked")
     public <T> T read() throws JsonReadException, IOException {
-        return (T) readImpl();
+        if (metricsListener == null)
+            return (T) readImpl();
+        return (T) readMeasured(metricsListener);
+    }
+
+    private Object readMeasured(final JsonMetricsListener listener) throws JsonReadException, IOException {
+        final long start = System.nanoTime();
+        final int startCharacters = tracker.getCharacterCount();
+        depth = 0;
+        maxDepth = 0;
+
+        final Object result;
+        try {
+            result = readImpl();
+        } catch (IOException | RuntimeException e) {
+            listener.readFailed(tracker.getCharacterCount() - startCharacters, System.nanoTime() - start, e);
+            throw e;
+        }
+
+        listener.documentRead(tracker.getCharacterCount() - startCharacters, maxDepth, System.nanoTime() - start);
+        return result;
     }
 
     private Object readImpl() throws JsonReadException, IOException {
@@ -317,6 +393,8 @@ public class JsonReader {
     // Native readers
     private JMap readObject() throws JsonReadException, IOException {
         final JMap object = new JMap();
+        if (++depth > maxDepth)
+            maxDepth = depth;
 
         validateNextChar('{');
         while (!testNextChar('}', true)) {
@@ -327,19 +405,97 @@ public class JsonReader {
         }
         nextChar(true);
 
+        depth--;
         return object;
     }
 
     private JList readArray() throws JsonReadException, IOException {
-        final JList array = new JList();
+        JList array = primitiveArrays ? new JLongList() : new JList();
+        if (++depth > maxDepth)
+            maxDepth = depth;
 
         validateNextChar('[');
         while (!testNextChar(']', true)) {
-            array.add(readImpl());
+            array = addToArray(array, readImpl());
             discardOptionalComma();
         }
         nextChar(true);
 
+        depth--;
+        if (array.isEmpty() && array instanceof JPrimitiveList)
+            return new JList();
         return array;
     }
+
+    /**
+     * Adds the value to the array, and returns the array. If the value cannot be held by a primitive array, a new
+     * array of a more general type is returned instead.
+     */
+    private static JList addToArray(final JList array, final Object value) {
+        if (array instanceof JPrimitiveList && value instanceof BigDecimal) {
+            final BigDecimal number = (BigDecimal) value;
+
+            if (array instanceof JLongList) {
+                final JLongList longs = (JLongList) array;
+                if (isLong(number)) {
+                    longs.addLong(number.longValue());
+                    return longs;
+                }
+                if (isDouble(number)) {
+                    // Switch to doubles if the integers so far can be converted exactly.
+                    final JDoubleList doubles = new JDoubleList();
+                    for (int i = 0; i < longs.size(); i++) {
+                        final long l = longs.getLong(i);
+                        if (l > 1L << 53 || l < -(1L << 53))
+                            return box(array, value);
+                        doubles.addInteger(l);
+                    }
+                    doubles.addDouble(number.doubleValue());
+                    return doubles;
+                }
+            } else {
+                final JDoubleList doubles = (JDoubleList) array;
+                if (isLong(number)) {
+                    final long l = number.longValue();
+                    if (l <= 1L << 53 && l >= -(1L << 53)) {
+                        doubles.addInteger(l);
+                        return doubles;
+                    }
+                }
+                if (isDouble(number)) {
+                    doubles.addDouble(number.doubleValue());
+                    return doubles;
+                }
+            }
+        }
+
+        if (array instanceof JPrimitiveList)
+            return box(array, value);
+
+        array.add(value);
+        return array;
+    }
+
+    private static JList box(final JList array, final Object value) {
+        final JList list = new JList(array);
+        list.add(value);
+        return list;
+    }
+
+    private static boolean isLong(final BigDecimal number) {
+        if (number.scale() > 0)
+            return false;
+        final int digits = number.precision() - number.scale();
+        if (digits != 19)
+            return digits < 19;
+        return number.compareTo(LONG_MIN) >= 0 && number.compareTo(LONG_MAX) <= 0;
+    }
+
+    private static boolean isDouble(final BigDecimal number) {
+        if (number.precision() > 15)
+            return false;
+        // Keep well within the range of normal doubles.
+        final int exponent = number.precision() - number.scale() - 1;
+        return exponent > -300 && exponent < 300;
+    }
 }
@@ -7,11 +7,14 @@
  */
 package lohbihler.atomicjson;
 
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -58,10 +61,31 @@ public class JsonWriter {
         return out.toString();
     }
 
+    /**
+     * A convenience method for writing the canonical form of an object. Equal objects - as determined by
+     * JUtil.equals - produce the same string, which makes the result suitable for use as a cache key.
+     *
+     * @param value
+     *            the object to serialize
+     * @return the resulting JSON string
+     */
+    public static String writeToCanonicalString(final Object value) {
+        final StringWriter out = new StringWriter();
+        final JsonWriter writer = new JsonWriter(out);
+        writer.setCanonical(true);
+        try {
+            writer.writeObject(value);
+        } catch (final IOException e) {
+            // This should never happen because we are writing to a StringWriter
+            throw new RuntimeException(e);
+        }
+        return out.toString();
+    }
+
     /**
      * The I/O writer to which the JSON content is written.
      */
-    private final Writer writer;
+    private Writer writer;
 
     /**
      * Useful for preventing infinite loops in objects where there are cyclical relationships.
@@ -83,9 +107,29 @@ public class JsonWriter {
      */
     private String prettyIndent = "  ";
 
+    /**
+     * Whether to write in canonical form, i.e. with map keys sorted and numbers normalized, so that equal objects
+     * always produce the same output.
+     */
+    private boolean canonical = false;
+
+    /**
+     * Receives measurements of each document that is written. Null, i.e. nothing is measured, by default.
+     */
+    private JsonMetricsListener metricsListener;
+
+    // The current and maximum nesting depth of the document being written.
+    private int depth;
+    private int maxDepth;
+
     private final List<Object> alreadySerialized = new ArrayList<>();
     private String currentIndent = "";
 
+    /**
+     * Scratch space into which number characters are generated before being written to the I/O writer.
+     */
+    private final char[] numberBuffer = new char[NumberWriter.BUFFER_SIZE];
+
     public JsonWriter withTrackAlreadySerialized(final boolean trackAlreadySerialized) {
         setTrackAlreadySerialized(trackAlreadySerialized);
         return this;
@@ -106,6 +150,16 @@ public class JsonWriter {
         return this;
     }
 
+    public JsonWriter withCanonical(final boolean canonical) {
+        setCanonical(canonical);
+        return this;
+    }
+
+    public JsonWriter withMetricsListener(final JsonMetricsListener metricsListener) {
+        setMetricsListener(metricsListener);
+        return this;
+    }
+
     /**
      * Creates a JSON writer with the given context around the given I/O writer.
      *
@@ -144,6 +198,38 @@ public class JsonWriter {
         this.escapeForwardSlash = escapeForwardSlash;
     }
 
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * In canonical form, map keys are written in sorted order, and numbers are written in a normalized form without
+     * trailing zeros, e.g. 1, 1.0, and 1.00 are all written as 1. Integers are written in plain notation if they have
+     * fewer than 22 digits, and decimals if their exponent is at least -6. Otherwise, scientific notation is used, e.g.
+     * 1.5E-10 and 1E+30.
+     *
+     * @param canonical
+     */
+    public void setCanonical(final boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    public JsonMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Sets the listener that is told about each document - i.e. each call to writeObject - that is written, or null
+     * to stop measuring. Setting a listener wraps the I/O writer so that characters can be counted.
+     *
+     * @param metricsListener
+     */
+    public void setMetricsListener(final JsonMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        if (metricsListener != null && !(writer instanceof CountingWriter))
+            writer = new CountingWriter(writer);
+    }
+
     public void setPrettyIndent(final int prettyIndent) {
         if (prettyIndent <= 0)
             this.prettyIndent = "";
@@ -170,6 +256,30 @@ public class JsonWriter {
      * @throws IOException
      */
     public void writeObject(final Object value) throws IOException {
+        if (metricsListener == null)
+            writeValue(value);
+        else
+            writeMeasured(value, metricsListener);
+    }
+
+    private void writeMeasured(final Object value, final JsonMetricsListener listener) throws IOException {
+        final CountingWriter counter = (CountingWriter) writer;
+        final long start = System.nanoTime();
+        final long startCharacters = counter.count;
+        depth = 0;
+        maxDepth = 0;
+
+        try {
+            writeValue(value);
+        } catch (IOException | RuntimeException e) {
+            listener.writeFailed(counter.count - startCharacters, System.nanoTime() - start, e);
+            throw e;
+        }
+
+        listener.documentWritten(counter.count - startCharacters, maxDepth, System.nanoTime() - start);
+    }
+
+    private void writeValue(final Object value) throws IOException {
         if (value == null) {
             writer.append("null");
             return;
@@ -189,49 +299,62 @@ public class JsonWriter {
         try {
             if (value instanceof Map<?, ?>) {
                 final Map<?, ?> map = (Map<?, ?>) value;
+                if (++depth > maxDepth)
+                    maxDepth = depth;
 
                 append('{');
                 increaseIndent();
 
-                boolean first = true;
-                for (final Map.Entry<?, ?> e : map.entrySet()) {
-                    if (first)
-                        first = false;
-                    else
-                        append(',');
-
-                    indent();
-                    quote(e.getKey().toString());
-                    append(':');
-                    writeObject(e.getValue());
+                if (canonical) {
+                    writeSortedEntries(map);
+                } else {
+                    boolean first = true;
+                    for (final Map.Entry<?, ?> e : map.entrySet()) {
+                        if (first)
+                            first = false;
+                        else
+                            append(',');
+
+                        indent();
+                        quote(e.getKey().toString());
+                        append(':');
+                        writeValue(e.getValue());
+                    }
                 }
 
                 decreaseIndent();
                 indent();
                 append('}');
+                depth--;
             } else if (value instanceof List<?>) {
                 final List<?> list = (List<?>) value;
+                if (++depth > maxDepth)
+                    maxDepth = depth;
 
                 append('[');
                 increaseIndent();
-                boolean first = true;
-                for (final Object o : list) {
-                    if (first)
-                        first = false;
-                    else
-                        append(',');
-                    indent();
-                    writeObject(o);
+                if (list instanceof JPrimitiveList && ((JPrimitiveList) list).isPrimitive()
+                        && !(canonical && list instanceof JDoubleList)) {
+                    writePrimitiveList((JPrimitiveList) list);
+                } else {
+                    boolean first = true;
+                    for (final Object o : list) {
+                        if (first)
+                            first = false;
+                        else
+                            append(',');
+                        indent();
+                        writeValue(o);
+                    }
                 }
                 decreaseIndent();
                 indent();
                 append(']');
+                depth--;
             } else if (value instanceof String) {
                 quote((String) value);
-            } else if (value instanceof BigDecimal) {
-                append(((BigDecimal) value).toPlainString());
             } else if (value instanceof Number) {
-                append(((Number) value).toString());
+                writeNumber((Number) value);
             } else if (value instanceof Boolean) {
                 append((Boolean) value ? "true" : "false");
             } else {
@@ -248,6 +371,97 @@ public class JsonWriter {
         }
     }
 
+    private void writeSortedEntries(final Map<?, ?> map) throws IOException {
+        final String[] keys = new String[map.size()];
+        int i = 0;
+        for (final Object key : map.keySet())
+            keys[i++] = key.toString();
+        Arrays.sort(keys);
+
+        for (i = 0; i < keys.length; i++) {
+            if (i > 0)
+                append(',');
+            indent();
+            quote(keys[i]);
+            append(':');
+            writeValue(map.get(keys[i]));
+        }
+    }
+
+    /**
+     * Writes the elements of a primitive list without boxing them.
+     */
+    private void writePrimitiveList(final JPrimitiveList list) throws IOException {
+        final int size = list.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                append(',');
+            indent();
+            final int len;
+            if (list instanceof JLongList)
+                len = NumberWriter.writeLong(list.getLong(i), numberBuffer, 0);
+            else if (((JDoubleList) list).isInteger(i))
+                len = NumberWriter.writeLong(list.getLong(i), numberBuffer, 0);
+            else
+                len = NumberWriter.writeDouble(list.getDouble(i), numberBuffer, 0);
+            writer.write(numberBuffer, 0, len);
+        }
+    }
+
+    private void writeNumber(final Number value) throws IOException {
+        if (canonical) {
+            writeCanonicalNumber(value);
+            return;
+        }
+
+        final int len;
+        if (value instanceof BigDecimal) {
+            len = NumberWriter.writeBigDecimal((BigDecimal) value, numberBuffer, 0);
+            if (len == -1) {
+                append(((BigDecimal) value).toPlainString());
+                return;
+            }
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            len = NumberWriter.writeLong(value.longValue(), numberBuffer, 0);
+        } else if (value instanceof Double) {
+            len = NumberWriter.writeDouble(value.doubleValue(), numberBuffer, 0);
+        } else if (value instanceof BigInteger) {
+            len = NumberWriter.writeBigInteger((BigInteger) value, numberBuffer, 0);
+            if (len == -1) {
+                append(value.toString());
+                return;
+            }
+        } else {
+            append(value.toString());
+            return;
+        }
+        writer.write(numberBuffer, 0, len);
+    }
+
+    private void writeCanonicalNumber(final Number value) throws IOException {
+        final BigDecimal bd;
+        try {
+            bd = JUtil.toBigDecimal(value).stripTrailingZeros();
+        } catch (final NumberFormatException e) {
+            // NaN or infinite. There is no canonical form, so write what we have.
+            append(value.toString());
+            return;
+        }
+
+        final int exponent = bd.precision() - 1 - bd.scale();
+        if (bd.scale() <= 0 && exponent < 21) {
+            final int len = NumberWriter.writeBigDecimal(bd, numberBuffer, 0);
+            if (len == -1)
+                append(bd.toPlainString());
+            else
+                writer.write(numberBuffer, 0, len);
+        } else {
+            // Plain notation for exponents down to -6, scientific otherwise.
+            append(bd.toString());
+        }
+    }
+
     /**
      * Flush the underlying I/O writer.
      *
@@ -360,4 +574,33 @@ public class JsonWriter {
         if (prettyOutput)
             writer.append("\r\n").append(currentIndent);
     }
+
+    /**
+     * Counts the characters written through it, for metrics.
+     */
+    private static class CountingWriter extends FilterWriter {
+        long count;
+
+        CountingWriter(final Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+    }
 }
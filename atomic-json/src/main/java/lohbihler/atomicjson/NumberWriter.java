@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Generates the characters of numbers directly into a char buffer, so that the JSON writer does not need to create an
+ * intermediate string for every numeric value.
+ *
+ * Doubles are written with the shortest decimal that rounds back to the same value, using the Schubfach algorithm
+ * described by Raffaello Giulietti in "The Schubfach way to render doubles". The layout of the result is the same as
+ * that of Double.toString, i.e. plain notation for magnitudes in [10^-3, 10^7), and computerized scientific notation
+ * otherwise.
+ *
+ * @author Matthew Lohbihler
+ */
+final class NumberWriter {
+    /**
+     * Large enough for any long, any double, and any BigDecimal that is written by this class rather than being
+     * delegated to toPlainString.
+     */
+    static final int BUFFER_SIZE = 64;
+
+    private static final char[] DIGIT_TENS = { //
+            '0', '0', '0', '0', '0', '0', '0', '0', '0', '0', //
+            '1', '1', '1', '1', '1', '1', '1', '1', '1', '1', //
+            '2', '2', '2', '2', '2', '2', '2', '2', '2', '2', //
+            '3', '3', '3', '3', '3', '3', '3', '3', '3', '3', //
+            '4', '4', '4', '4', '4', '4', '4', '4', '4', '4', //
+            '5', '5', '5', '5', '5', '5', '5', '5', '5', '5', //
+            '6', '6', '6', '6', '6', '6', '6', '6', '6', '6', //
+            '7', '7', '7', '7', '7', '7', '7', '7', '7', '7', //
+            '8', '8', '8', '8', '8', '8', '8', '8', '8', '8', //
+            '9', '9', '9', '9', '9', '9', '9', '9', '9', '9', //
+    };
+
+    private static final char[] DIGIT_ONES = { //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', //
+    };
+
+    private static final char[] LONG_MIN = "-9223372036854775808".toCharArray();
+
+    private NumberWriter() {
+        // Static methods only
+    }
+
+    //
+    // Integers
+    //
+
+    /**
+     * Writes the decimal digits of the given value into the buffer at the given position.
+     *
+     * @return the position after the last character written
+     */
+    static int writeLong(final long value, final char[] buf, final int pos) {
+        if (value == Long.MIN_VALUE) {
+            System.arraycopy(LONG_MIN, 0, buf, pos, LONG_MIN.length);
+            return pos + LONG_MIN.length;
+        }
+
+        int p = pos;
+        long v = value;
+        if (v < 0) {
+            buf[p++] = '-';
+            v = -v;
+        }
+        final int end = p + digitCount(v);
+        writeDigits(v, buf, end);
+        return end;
+    }
+
+    /**
+     * Writes the given BigDecimal in the same format as BigDecimal.toPlainString. Returns -1 if the value is too large
+     * to be written directly, in which case the caller should fall back to toPlainString.
+     *
+     * @return the position after the last character written, or -1
+     */
+    static int writeBigDecimal(final BigDecimal value, final char[] buf, final int pos) {
+        final int scale = value.scale();
+        if (value.precision() > 18 || scale > 32 || scale < -32)
+            return -1;
+
+        final long unscaled = value.unscaledValue().longValue();
+        if (scale == 0)
+            return writeLong(unscaled, buf, pos);
+        if (scale < 0) {
+            if (unscaled == 0)
+                // Let BigDecimal decide how to render zeros with negative scales.
+                return -1;
+            int p = writeLong(unscaled, buf, pos);
+            for (int i = scale; i < 0; i++)
+                buf[p++] = '0';
+            return p;
+        }
+
+        int p = pos;
+        long v = unscaled;
+        if (v < 0) {
+            buf[p++] = '-';
+            v = -v;
+        }
+
+        final int digits = digitCount(v);
+        if (digits > scale) {
+            // The point goes within the digits. Write the digits, then shift the fraction over to make room.
+            final int end = p + digits + 1;
+            writeDigits(v, buf, end - 1);
+            final int point = end - 1 - scale;
+            System.arraycopy(buf, point, buf, point + 1, scale);
+            buf[point] = '.';
+            return end;
+        }
+
+        // Leading zeros are required.
+        buf[p++] = '0';
+        buf[p++] = '.';
+        for (int i = digits; i < scale; i++)
+            buf[p++] = '0';
+        final int end = p + digits;
+        writeDigits(v, buf, end);
+        return end;
+    }
+
+    /**
+     * Writes the given BigInteger if it fits in a long. Otherwise returns -1, in which case the caller should fall back
+     * to toString.
+     *
+     * @return the position after the last character written, or -1
+     */
+    static int writeBigInteger(final BigInteger value, final char[] buf, final int pos) {
+        if (value.bitLength() > 63)
+            return -1;
+        return writeLong(value.longValue(), buf, pos);
+    }
+
+    /**
+     * @param v
+     *            a non-negative value
+     * @return the number of decimal digits in v
+     */
+    static int digitCount(final long v) {
+        long p = 10;
+        for (int i = 1; i < 19; i++) {
+            if (v < p)
+                return i;
+            p *= 10;
+        }
+        return 19;
+    }
+
+    /**
+     * Writes the digits of the given non-negative value right to left, ending just before the given position.
+     */
+    private static void writeDigits(final long value, final char[] buf, final int end) {
+        long v = value;
+        int p = end;
+
+        // Two digits at a time while the value does not fit into an int.
+        while (v > Integer.MAX_VALUE) {
+            final long q = v / 100;
+            final int r = (int) (v - q * 100);
+            v = q;
+            buf[--p] = DIGIT_ONES[r];
+            buf[--p] = DIGIT_TENS[r];
+        }
+
+        int i = (int) v;
+        while (i >= 100) {
+            final int q = i / 100;
+            final int r = i - q * 100;
+            i = q;
+            buf[--p] = DIGIT_ONES[r];
+            buf[--p] = DIGIT_TENS[r];
+        }
+        buf[--p] = DIGIT_ONES[i];
+        if (i >= 10)
+            buf[--p] = DIGIT_TENS[i];
+    }
+
+    //
+    // Doubles
+    //
+
+    // The precision of a double in bits, including the hidden bit.
+    private static final int P = 53;
+    // The minimum exponent of a double.
+    private static final int Q_MIN = -1074;
+    // The minimum and maximum exponents of the powers of 10 in the table.
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    // The maximum number of significant digits of the shortest decimal.
+    private static final int H = 17;
+    private static final long C_MIN = 1L << P - 1;
+    private static final long C_TINY = 3;
+    private static final int BQ_MASK = (1 << 11) - 1;
+    private static final long T_MASK = (1L << P - 1) - 1;
+    private static final long MASK_63 = (1L << 63) - 1;
+    private static final int MASK_28 = (1 << 28) - 1;
+
+    private static final long[] POW10 = new long[H + 1];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+
+    /**
+     * For each k in [K_MIN, K_MAX], the 126-bit value g = floor(10^-k * 2^-r) + 1, where r is chosen such that 2^125
+     * <= 10^-k * 2^-r < 2^126. The high 63 bits are stored at (k - K_MIN) * 2, the low 63 bits at (k - K_MIN) * 2 + 1.
+     */
+    private static final long[] G = new long[(K_MAX - K_MIN + 1) * 2];
+    static {
+        final BigInteger mask63 = BigInteger.ONE.shiftLeft(63).subtract(BigInteger.ONE);
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            BigInteger g;
+            if (k <= 0) {
+                // 10^-k is an integer.
+                final BigInteger n = BigInteger.TEN.pow(-k);
+                final int r = n.bitLength() - 126;
+                g = r >= 0 ? n.shiftRight(r) : n.shiftLeft(-r);
+            } else {
+                // 10^-k = 1 / d, which is never a power of 2.
+                final BigInteger d = BigInteger.TEN.pow(k);
+                g = BigInteger.ONE.shiftLeft(d.bitLength() + 125).divide(d);
+            }
+            g = g.add(BigInteger.ONE);
+            G[k - K_MIN << 1] = g.shiftRight(63).longValue();
+            G[k - K_MIN << 1 | 1] = g.and(mask63).longValue();
+        }
+    }
+
+    /**
+     * Writes the shortest decimal that rounds to the given value, in the format of Double.toString.
+     *
+     * @return the position after the last character written
+     */
+    static int writeDouble(final double v, final char[] buf, final int pos) {
+        final long bits = Double.doubleToRawLongBits(v);
+        final long t = bits & T_MASK;
+        final int bq = (int) (bits >>> P - 1) & BQ_MASK;
+        if (bq == BQ_MASK)
+            return writeAscii(t != 0 ? "NaN" : bits > 0 ? "Infinity" : "-Infinity", buf, pos);
+
+        int p = pos;
+        if (bits < 0)
+            buf[p++] = '-';
+
+        if (bq != 0) {
+            // Normal value
+            final int mq = -Q_MIN + 1 - bq;
+            final long c = C_MIN | t;
+            if (0 < mq & mq < P) {
+                // Fast path for integer values.
+                final long f = c >> mq;
+                if (f << mq == c)
+                    return toChars(f, 0, buf, p);
+            }
+            return toDecimal(-mq, c, 0, buf, p);
+        }
+        if (t != 0) {
+            // Subnormal value
+            return t < C_TINY ? toDecimal(Q_MIN, 10 * t, -1, buf, p) : toDecimal(Q_MIN, t, 0, buf, p);
+        }
+        return writeAscii("0.0", buf, p);
+    }
+
+    private static int toDecimal(final int q, final long c, final int dk, final char[] buf, final int pos) {
+        final int out = (int) c & 0x1;
+        final long cb = c << 2;
+        final long cbr = cb + 2;
+        final long cbl;
+        final int k;
+        if (c != C_MIN | q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // The value is at a power of 2 boundary, so the interval of rounding is asymmetric.
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        final int h = q + flog2pow10(-k) + 2;
+
+        final long g1 = G[k - K_MIN << 1];
+        final long g0 = G[k - K_MIN << 1 | 1];
+
+        final long vb = rop(g1, g0, cb << h);
+        final long vbl = rop(g1, g0, cbl << h);
+        final long vbr = rop(g1, g0, cbr << h);
+
+        final long s = vb >> 2;
+        if (s >= 100) {
+            // Try for a result with one digit less.
+            final long sp10 = 10 * multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            final long tp10 = sp10 + 10;
+            final boolean upin = vbl + out <= sp10 << 2;
+            final boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin)
+                return toChars(upin ? sp10 : tp10, k, buf, pos);
+        }
+
+        final long t = s + 1;
+        final boolean uin = vbl + out <= s << 2;
+        final boolean win = (t << 2) + out <= vbr;
+        if (uin != win)
+            return toChars(uin ? s : t, k + dk, buf, pos);
+
+        // Both candidates are in the rounding interval. Pick the closest, or the even one on a tie.
+        final long cmp = vb - (s + t << 1);
+        return toChars(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, buf, pos);
+    }
+
+    /**
+     * Computes the rounded-to-odd product of g and cp, scaled down by 2^127.
+     */
+    private static long rop(final long g1, final long g0, final long cp) {
+        final long x1 = multiplyHigh(g0, cp);
+        final long y0 = g1 * cp;
+        final long y1 = multiplyHigh(g1, cp);
+        final long z = (y0 >>> 1) + x1;
+        final long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    /**
+     * Writes f * 10^e, where f has at most H digits.
+     */
+    private static int toChars(final long value, final int exp, final char[] buf, final int pos) {
+        long f = value;
+        int e = exp;
+
+        // Normalize f to have exactly H digits.
+        int len = flog10pow2(Long.SIZE - Long.numberOfLeadingZeros(f));
+        if (f >= POW10[len])
+            len++;
+        f *= POW10[H - len];
+        e += len;
+
+        // Split into the most significant digit h, the next 8 digits m, and the last 8 digits l.
+        final long hm = multiplyHigh(f, 193_428_131_138_340_668L) >>> 20;
+        final int l = (int) (f - 100_000_000L * hm);
+        final int h = (int) (hm * 1_441_151_881L >>> 57);
+        final int m = (int) (hm - 100_000_000 * h);
+
+        int p = pos;
+        if (0 < e && e <= 7) {
+            // Plain format without leading zeros
+            buf[p++] = (char) ('0' + h);
+            int y = y(m);
+            int i = 1;
+            for (; i < e; i++) {
+                final int d = 10 * y;
+                buf[p++] = (char) ('0' + (d >>> 28));
+                y = d & MASK_28;
+            }
+            buf[p++] = '.';
+            for (; i <= 8; i++) {
+                final int d = 10 * y;
+                buf[p++] = (char) ('0' + (d >>> 28));
+                y = d & MASK_28;
+            }
+            return lowDigits(l, buf, p);
+        }
+
+        if (-3 < e && e <= 0) {
+            // Plain format with leading zeros
+            buf[p++] = '0';
+            buf[p++] = '.';
+            for (; e < 0; e++)
+                buf[p++] = '0';
+            buf[p++] = (char) ('0' + h);
+            p = append8Digits(m, buf, p);
+            return lowDigits(l, buf, p);
+        }
+
+        // Computerized scientific notation
+        buf[p++] = (char) ('0' + h);
+        buf[p++] = '.';
+        p = append8Digits(m, buf, p);
+        p = lowDigits(l, buf, p);
+        return exponent(e - 1, buf, p);
+    }
+
+    private static int lowDigits(final int l, final char[] buf, final int pos) {
+        int p = pos;
+        if (l != 0)
+            p = append8Digits(l, buf, p);
+
+        // Remove trailing zeros, but keep the one directly after the point.
+        while (buf[p - 1] == '0')
+            p--;
+        if (buf[p - 1] == '.')
+            p++;
+        return p;
+    }
+
+    private static int append8Digits(final int m, final char[] buf, final int pos) {
+        int p = pos;
+        int y = y(m);
+        for (int i = 0; i < 8; i++) {
+            final int d = 10 * y;
+            buf[p++] = (char) ('0' + (d >>> 28));
+            y = d & MASK_28;
+        }
+        return p;
+    }
+
+    /**
+     * Prepares the 8 digit value a for left-to-right digit extraction as a 28-bit fixed point fraction.
+     */
+    private static int y(final int a) {
+        return (int) (multiplyHigh((long) (a + 1) << 28, 193_428_131_138_340_668L) >>> 20) - 1;
+    }
+
+    private static int exponent(final int exp, final char[] buf, final int pos) {
+        int p = pos;
+        int e = exp;
+        buf[p++] = 'E';
+        if (e < 0) {
+            buf[p++] = '-';
+            e = -e;
+        }
+        if (e >= 100) {
+            final int d = e / 100;
+            e -= d * 100;
+            buf[p++] = (char) ('0' + d);
+            buf[p++] = DIGIT_TENS[e];
+            buf[p++] = DIGIT_ONES[e];
+        } else if (e >= 10) {
+            buf[p++] = DIGIT_TENS[e];
+            buf[p++] = DIGIT_ONES[e];
+        } else {
+            buf[p++] = (char) ('0' + e);
+        }
+        return p;
+    }
+
+    private static int writeAscii(final String s, final char[] buf, final int pos) {
+        s.getChars(0, s.length(), buf, pos);
+        return pos + s.length();
+    }
+
+    // floor(log10(2^e))
+    private static int flog10pow2(final int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    // floor(log10(3/4 * 2^e))
+    private static int flog10threeQuartersPow2(final int e) {
+        return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    // floor(log2(10^e))
+    private static int flog2pow10(final int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+
+    /**
+     * The high 64 bits of the 128-bit product of x and y. Equivalent to Math.multiplyHigh, which is not available in
+     * Java 8.
+     */
+    static long multiplyHigh(final long x, final long y) {
+        final long x1 = x >> 32;
+        final long x2 = x & 0xFFFFFFFFL;
+        final long y1 = y >> 32;
+        final long y2 = y & 0xFFFFFFFFL;
+        final long z2 = x2 * y2;
+        final long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFFFFFFL;
+        final long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JPrimitiveListTest {
+    @Test
+    public void readLongs() throws Exception {
+        final JList list = new JsonReader("[1, -2, 3, 1e2, 9223372036854775807]").withPrimitiveArrays(true).read();
+        assertEquals(JLongList.class, list.getClass());
+        assertEquals(5, list.size());
+        assertEquals(1, list.getLong(0));
+        assertEquals(-2, list.getInt(1));
+        assertEquals(3.0, list.getDouble(2), 0);
+        assertEquals(100, list.getLong(3));
+        assertEquals(Long.MAX_VALUE, list.getLong(4));
+        assertEquals(new BigDecimal(-2), list.get(1));
+        assertEquals(new BigDecimal(-2), list.getBigDecimal(1));
+        assertEquals("[1,-2,3,100,9223372036854775807]", JsonWriter.writeToString(list));
+    }
+
+    @Test
+    public void readDoubles() throws Exception {
+        final JList list = new JsonReader("[1, 2.5, -0.001, 1.23456789012345e100]").withPrimitiveArrays(true).read();
+        assertEquals(JDoubleList.class, list.getClass());
+        assertEquals(1.0, list.getDouble(0), 0);
+        assertEquals(2.5, list.getDouble(1), 0);
+        assertEquals(2, list.getInt(1));
+        assertEquals(-0.001, list.getDouble(2), 0);
+        assertEquals(0, new BigDecimal("1.23456789012345e100").compareTo(list.getBigDecimal(3)));
+        assertEquals(new JsonReader("[1, 2.5, -0.001, 1.23456789012345e100]").read(), list);
+        // Integers are kept as integers.
+        assertEquals(new BigDecimal(1), list.get(0));
+        assertEquals("[1,2.5,-0.001,1.23456789012345E100]", JsonWriter.writeToString(list));
+        assertEquals("[1.5,2,1.0]", JsonWriter.writeToString(
+                new JsonReader("[1.5, 2, 1.0]").withPrimitiveArrays(true).read()));
+    }
+
+    @Test
+    public void readMixed() throws Exception {
+        final JsonReader reader = new JsonReader("[1, 2, \"three\"] [1.5, 1234567890123456.7] [] [[1], {\"a\":[2.5]}]")
+                .withPrimitiveArrays(true);
+
+        // Not numbers
+        JList list = reader.read();
+        assertEquals(JList.class, list.getClass());
+        assertEquals(new JList().jadd(new BigDecimal(1)).jadd(new BigDecimal(2)).jadd("three"), list);
+
+        // Too many digits for a double
+        list = reader.read();
+        assertEquals(JList.class, list.getClass());
+        assertEquals(new BigDecimal("1234567890123456.7"), list.get(1));
+
+        // Empty
+        list = reader.read();
+        assertEquals(JList.class, list.getClass());
+
+        // Nested
+        list = reader.read();
+        assertEquals(JList.class, list.getClass());
+        assertEquals(JLongList.class, list.getList(0).getClass());
+        assertEquals(JDoubleList.class, list.getMap(1).getList("a").getClass());
+    }
+
+    @Test
+    public void defaultIsBoxed() throws Exception {
+        final JList list = new JsonReader("[1, 2, 3]").read();
+        assertEquals(JList.class, list.getClass());
+    }
+
+    @Test
+    public void primitiveChanges() {
+        final JLongList list = new JLongList(1, 2, 3);
+        list.add(4L);
+        list.add(5);
+        list.set(0, 10L);
+        assertTrue(list.isPrimitive());
+        assertArrayEquals(new long[] { 10, 2, 3, 4, 5 }, list.toLongArray());
+
+        final JDoubleList doubles = new JDoubleList(1.5);
+        doubles.addDouble(2.5).add(3.5);
+        assertTrue(doubles.isPrimitive());
+        assertArrayEquals(new double[] { 1.5, 2.5, 3.5 }, doubles.toDoubleArray(), 0);
+
+        list.clear();
+        assertTrue(list.isPrimitive());
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void inflation() {
+        final JLongList list = new JLongList(1, 2, 3);
+        list.add("four");
+        assertFalse(list.isPrimitive());
+        assertEquals(4, list.size());
+        assertEquals(2, list.getLong(1));
+        assertEquals("four", list.getString(3));
+        assertEquals("[1,2,3,\"four\"]", JsonWriter.writeToString(list));
+
+        final JLongList list2 = new JLongList(1, 2, 3);
+        list2.remove(1);
+        assertFalse(list2.isPrimitive());
+        assertEquals(new JList().jadd(1).jadd(3), list2);
+
+        final JDoubleList list3 = new JDoubleList(1.5, 2.5);
+        list3.add(0, 0.5);
+        assertFalse(list3.isPrimitive());
+        assertArrayEquals(new double[] { 0.5, 1.5, 2.5 }, list3.toDoubleArray(), 0);
+    }
+
+    @Test
+    public void searchesAcrossInflation() {
+        final JLongList longs = new JLongList(5, 6);
+        final JDoubleList doubles = new JDoubleList(0.1, 2.0, Double.NaN);
+        for (int pass = 0; pass < 2; pass++) {
+            assertEquals(pass == 0, longs.isPrimitive());
+            assertTrue(longs.contains(5));
+            assertEquals(0, longs.indexOf(new BigDecimal("5.0")));
+            assertEquals(1, longs.lastIndexOf(6.0));
+            assertFalse(longs.contains(5.5));
+            assertFalse(longs.contains(null));
+
+            assertEquals(pass == 0, doubles.isPrimitive());
+            assertEquals(0, doubles.indexOf(0.1));
+            assertEquals(0, doubles.indexOf(doubles.get(0)));
+            assertEquals(0, doubles.indexOf(new BigDecimal("0.10")));
+            assertEquals(1, doubles.indexOf(2));
+            assertEquals(2, doubles.indexOf(Double.NaN));
+            assertEquals(-1, doubles.indexOf(Double.POSITIVE_INFINITY));
+
+            if (pass == 0) {
+                longs.add("x");
+                doubles.add("x");
+            }
+        }
+        assertTrue(longs.contains("x"));
+
+        // Removal by value uses the same comparison.
+        assertTrue(longs.remove(new BigDecimal("5.00")));
+        assertTrue(doubles.remove(Double.NaN));
+        assertEquals(new JList().jadd(6).jadd("x"), longs);
+    }
+
+    @Test
+    public void listAccess() {
+        final JLongList list = new JLongList(5, 6, 7);
+        final List<Object> expected = Arrays.asList(new BigDecimal(5), new BigDecimal(6), new BigDecimal(7));
+
+        assertEquals(list, new JList().jadd(5).jadd(6).jadd(7));
+        assertEquals(new JList().jadd(5).jadd(6).jadd(7).hashCode(), list.hashCode());
+        assertEquals(expected, new ArrayList<>(list));
+        assertEquals(1, list.indexOf(new BigDecimal(6)));
+        assertTrue(list.contains(new BigDecimal(7)));
+        // Values compare numerically, whatever their type.
+        assertTrue(list.contains(7));
+        assertTrue(list.contains(7L));
+        assertTrue(list.contains(new BigDecimal("7.0")));
+        assertTrue(list.contains(7.0));
+        assertFalse(list.contains(7.5));
+        assertFalse(list.contains("7"));
+        assertEquals(2, list.lastIndexOf(7));
+
+        final JDoubleList doubles = new JDoubleList(1.5, 2.0, 1.5);
+        assertEquals(0, doubles.indexOf(1.5));
+        assertEquals(2, doubles.lastIndexOf(1.5));
+        assertEquals(0, doubles.indexOf(new BigDecimal("1.50")));
+        assertEquals(1, doubles.indexOf(2));
+        assertEquals(-1, doubles.indexOf(Double.NaN));
+        assertArrayEquals(expected.toArray(), list.toArray());
+        assertEquals(18, list.stream().mapToLong(o -> ((BigDecimal) o).longValue()).sum());
+        assertEquals(expected, JUtil.deepCopy(list));
+
+        final Iterator<Object> iter = list.iterator();
+        iter.next();
+        iter.remove();
+        assertEquals(2, list.size());
+        assertEquals(new BigDecimal(6), iter.next());
+        assertEquals(new BigDecimal(7), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        final JDoubleList list = new JDoubleList(1.5, 2.5);
+        final JDoubleList copy = JUtil.deepCopy(list);
+        copy.set(0, 9.5);
+        assertEquals(1.5, list.getDouble(0), 0);
+        assertEquals(9.5, copy.getDouble(0), 0);
+    }
+}
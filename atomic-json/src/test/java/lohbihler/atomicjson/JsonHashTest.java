@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JsonHashTest {
+    @Test
+    public void numbers() {
+        final Object[] ones = { 1, 1L, (short) 1, (byte) 1, 1.0, 1.0F, new BigDecimal("1"), new BigDecimal("1.000"),
+                new BigDecimal("0.1E1"), BigInteger.ONE };
+        for (final Object one : ones) {
+            assertTrue(JUtil.equals(ones[0], one));
+            assertEquals(one.toString(), JsonHash.hash64(ones[0]), JsonHash.hash64(one));
+        }
+
+        assertSameHash(100, new BigDecimal("1E+2"));
+        assertSameHash(0, new BigDecimal("0.000"));
+        assertSameHash(0, -0.0);
+        assertSameHash(-12.5, new BigDecimal("-12.50"));
+        assertSameHash(1e30, new BigDecimal("1000000000000000000000000000000"));
+        assertSameHash(Long.MAX_VALUE, new BigDecimal(Long.MAX_VALUE + ".000"));
+        assertSameHash(new BigInteger("123456789012345678901234567890"),
+                new BigDecimal("123456789012345678901234567890.0"));
+        assertSameHash(0.1, new BigDecimal("0.1"));
+
+        assertNotEquals(JsonHash.hash64(1), JsonHash.hash64(10));
+        assertNotEquals(JsonHash.hash64(1), JsonHash.hash64(0.1));
+        assertNotEquals(JsonHash.hash64(1), JsonHash.hash64(-1));
+        assertNotEquals(JsonHash.hash64(1), JsonHash.hash64("1"));
+    }
+
+    private static void assertSameHash(final Object o1, final Object o2) {
+        assertTrue(JUtil.equals(o1, o2));
+        assertArrayEquals(JsonHash.hash128(o1), JsonHash.hash128(o2));
+    }
+
+    @Test
+    public void structures() throws Exception {
+        final JMap map1 = new JsonReader("{\"a\":1, \"b\":[1.50, \"x\", null, true], \"c\":{\"d\":false}}").read();
+        final Map<String, Object> map2 = new LinkedHashMap<>();
+        map2.put("c", new JMap().put("d", false));
+        map2.put("b", new JList().jadd(1.5).jadd("x").jadd(null).jadd(true));
+        map2.put("a", 1L);
+        assertEquals(map1, map2);
+        assertSameHash(map1, map2);
+        assertEquals(map1.hashCode(), new JMap().putAll(map1).hashCode());
+
+        // Primitive lists hash the same as boxed ones.
+        final JList boxed = new JsonReader("[1, 2.5, 3]").read();
+        final JList primitive = new JsonReader("[1, 2.5, 3]").withPrimitiveArrays(true).read();
+        assertEquals(JDoubleList.class, primitive.getClass());
+        assertSameHash(boxed, primitive);
+        assertSameHash(new JsonReader("[1, 2, 3]").read(), new JLongList(1, 2, 3));
+
+        // Structure matters.
+        assertNotEquals(JsonHash.hash64(new JList().jadd("ab")), JsonHash.hash64(new JList().jadd("a").jadd("b")));
+        assertNotEquals(JsonHash.hash64(new JList().jadd(new JList())), JsonHash.hash64(new JList()));
+        assertNotEquals(JsonHash.hash64(new JMap().put("a", "b")), JsonHash.hash64(new JMap().put("b", "a")));
+        assertNotEquals(JsonHash.hash64(new JMap()), JsonHash.hash64(new JList()));
+        assertNotEquals(JsonHash.hash64(null), JsonHash.hash64(false));
+    }
+
+    @Test
+    public void hashCodesAreConsistentWithEquals() {
+        final Set<Object> set = new HashSet<>();
+        set.add(new JMap().put("a", new BigDecimal("1.0")).put("b", new JList().jadd(2)));
+        assertTrue(set.contains(new JMap().put("a", 1).put("b", new JList().jadd(2.0))));
+        assertEquals(new JList().jadd(1).hashCode(), new JList().jadd(new BigDecimal("1.00")).hashCode());
+    }
+
+    @Test
+    public void streaming() {
+        final long[] hash = new JsonHash().add("a").add(1).hash128();
+        assertArrayEquals(hash, new JsonHash().add("a").add(new BigDecimal("1.0")).hash128());
+        assertNotEquals(hash[0], new JsonHash().add(1).add("a").hash64());
+    }
+
+    @Test
+    public void distribution() {
+        // No collisions among a range of simple values.
+        final Set<Long> hashes = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            hashes.add(JsonHash.hash64(i));
+            hashes.add(JsonHash.hash64(Integer.toString(i)));
+            hashes.add(JsonHash.hash64(new JMap().put("k", i)));
+            hashes.add(JsonHash.hash64(new JList().jadd(i).jadd(i + 1)));
+        }
+        assertEquals(40_000, hashes.size());
+    }
+}
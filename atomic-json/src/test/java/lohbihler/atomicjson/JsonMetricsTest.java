@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class JsonMetricsTest {
+    @Test
+    public void reading() throws IOException {
+        final JsonMetrics metrics = new JsonMetrics();
+        final String json = "{\"a\":[1,[2]]} [3] {}";
+        final JsonReader reader = new JsonReader(json).withMetricsListener(metrics);
+
+        reader.read();
+        assertEquals(1, metrics.getDocumentsRead());
+        assertEquals(3, metrics.getMaxReadDepth());
+
+        reader.read();
+        reader.read();
+        assertEquals(3, metrics.getDocumentsRead());
+        assertEquals(3, metrics.getMaxReadDepth());
+        assertEquals(json.length(), metrics.getCharactersRead());
+        assertTrue(metrics.getReadNanos() > 0);
+        assertEquals(0, metrics.getReadErrors());
+
+        try {
+            new JsonReader("[1,x]").withMetricsListener(metrics).read();
+            fail("Should have failed");
+        } catch (final JsonReadException e) {
+            // expected
+        }
+        assertEquals(3, metrics.getDocumentsRead());
+        assertEquals(1, metrics.getReadErrors());
+    }
+
+    @Test
+    public void writing() throws IOException {
+        final JsonMetrics metrics = new JsonMetrics();
+        final StringWriter out = new StringWriter();
+        final JsonWriter writer = new JsonWriter(out).withMetricsListener(metrics);
+
+        writer.writeObject(new JMap().put("a", new JList().jadd(1).jadd(new JList())).put("b", "c"));
+        assertEquals(1, metrics.getDocumentsWritten());
+        assertEquals(3, metrics.getMaxWriteDepth());
+        assertEquals(out.toString().length(), metrics.getCharactersWritten());
+
+        writer.writeObject("x");
+        assertEquals(2, metrics.getDocumentsWritten());
+        assertEquals(out.toString().length(), metrics.getCharactersWritten());
+        assertTrue(metrics.getWriteNanos() > 0);
+        assertEquals(0, metrics.getWriteErrors());
+    }
+
+    @Test
+    public void listenerDefaults() throws IOException {
+        // A listener need only implement the methods that it is interested in.
+        final int[] depth = new int[1];
+        final JsonMetricsListener listener = new JsonMetricsListener() {
+            @Override
+            public void documentRead(final long characters, final int maxDepth, final long elapsedNanos) {
+                depth[0] = maxDepth;
+            }
+        };
+        new JsonReader("[[[]]]").withMetricsListener(listener).read();
+        assertEquals(3, depth[0]);
+        assertEquals("[[[]]]", JsonWriter.writeToString(new JsonReader("[[[]]]").read()));
+    }
+}
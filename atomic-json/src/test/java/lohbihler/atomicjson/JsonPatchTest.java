@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonPatchTest {
+    private static Object read(final String json) {
+        try {
+            return new JsonReader(json.replace('\'', '"')).read();
+        } catch (final IOException e) {
+            // This should never happen because we are reading from a string
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void roundTrip(final String sourceJson, final String targetJson) {
+        final Object source = read(sourceJson);
+        final Object target = read(targetJson);
+
+        final JList patch = JsonPatch.diff(source, target);
+        final Object patched = JsonPatch.apply(JUtil.deepCopy(source), (JList) read(JsonWriter.writeToString(patch)));
+        assertTrue(JsonWriter.writeToString(patch), JUtil.equals(target, patched));
+    }
+
+    @Test
+    public void diffMaps() {
+        final JList patch = JsonPatch.diff(read("{'a':1,'b':{'c':'x','d':[1,2]},'e':true}"),
+                read("{'a':1.0,'b':{'c':'y','d':[1,2]},'f':null}"));
+        assertEquals(3, patch.size());
+        assertTrue(patch.contains(new JMap().put("op", "replace").put("path", "/b/c").put("value", "y")));
+        assertTrue(patch.contains(new JMap().put("op", "remove").put("path", "/e")));
+        assertTrue(patch.contains(new JMap().put("op", "add").put("path", "/f").put("value", null)));
+    }
+
+    @Test
+    public void diffLists() {
+        assertEquals(new JList().jadd(new JMap().put("op", "add").put("path", "/2").put("value", 9)),
+                JsonPatch.diff(read("[1,2,3,4]"), read("[1,2,9,3,4]")));
+        assertEquals(new JList().jadd(new JMap().put("op", "remove").put("path", "/1")),
+                JsonPatch.diff(read("[1,2,3,4]"), read("[1,3,4]")));
+        assertEquals(new JList().jadd(new JMap().put("op", "add").put("path", "/4").put("value", 5)),
+                JsonPatch.diff(read("[1,2,3,4]"), read("[1,2,3,4,5]")));
+        assertEquals(new JList().jadd(new JMap().put("op", "replace").put("path", "/0/a").put("value", 2)),
+                JsonPatch.diff(read("[{'a':1},3]"), read("[{'a':2},3]")));
+        assertEquals(0, JsonPatch.diff(read("[1,2.50]"), read("[1.0,2.5]")).size());
+    }
+
+    @Test
+    public void roundTrips() {
+        roundTrip("{}", "{'a':1}");
+        roundTrip("{'a':1}", "{}");
+        roundTrip("{'a':[1,2,3]}", "{'a':[3,2,1]}");
+        roundTrip("{'a':[1,2,3]}", "{'a':[]}");
+        roundTrip("{'a':[]}", "{'a':[1,{'b':2},3]}");
+        roundTrip("[1,2,3,4,5,6]", "[0,2,3,7,8,5,6,9]");
+        roundTrip("[1,2,3,4,5,6]", "[1,6]");
+        roundTrip("{'a/b':1,'c~d':2}", "{'a/b':2,'c~d':3}");
+        roundTrip("{'a':{'b':{'c':[1,{'d':null}]}}}", "{'a':{'b':{'c':[1,{'d':false}]}}}");
+        roundTrip("{'a':1}", "[1]");
+        roundTrip("'x'", "'y'");
+        roundTrip("{'a':{'b':1}}", "{'a':[1]}");
+    }
+
+    @Test
+    public void applyOperations() {
+        // The example from RFC 6902 appendix A.
+        JMap doc = (JMap) read("{'foo':['bar','baz']}");
+        doc = JsonPatch.apply(doc, (JList) read("[{'op':'add','path':'/foo/1','value':'qux'}]"));
+        assertEquals(read("{'foo':['bar','qux','baz']}"), doc);
+
+        doc = JsonPatch.apply(doc, (JList) read("[{'op':'add','path':'/foo/-','value':'end'}]"));
+        assertEquals(read("{'foo':['bar','qux','baz','end']}"), doc);
+
+        doc = JsonPatch.apply(doc, (JList) read("[{'op':'move','from':'/foo/1','path':'/moved'}]"));
+        assertEquals(read("{'foo':['bar','baz','end'],'moved':'qux'}"), doc);
+
+        doc = JsonPatch.apply(doc, (JList) read("[{'op':'copy','from':'/foo','path':'/copied'}]"));
+        assertEquals(read("{'foo':['bar','baz','end'],'moved':'qux','copied':['bar','baz','end']}"), doc);
+        doc.getList("copied").add("more");
+        assertEquals(3, doc.getList("foo").size());
+
+        doc = JsonPatch.apply(doc, (JList) read("[{'op':'test','path':'/copied/3','value':'more'}," //
+                + "{'op':'remove','path':'/copied'},{'op':'replace','path':'/moved','value':1}]"));
+        assertEquals(read("{'foo':['bar','baz','end'],'moved':1}"), doc);
+
+        final Object root = JsonPatch.apply(doc, (JList) read("[{'op':'replace','path':'','value':[1]}]"));
+        assertEquals(read("[1]"), root);
+    }
+
+    @Test
+    public void applyFailures() {
+        checkFailure("{'a':1}", "[{'op':'remove','path':'/b'}]", "Path not found: /b");
+        checkFailure("{'a':1}", "[{'op':'replace','path':'/b','value':1}]", "Path not found: /b");
+        checkFailure("{'a':[1]}", "[{'op':'add','path':'/a/2','value':1}]", "Array index out of bounds in path: /a/2");
+        checkFailure("{'a':[1]}", "[{'op':'add','path':'/a/01','value':1}]", "Invalid array index in path: /a/01");
+        checkFailure("{'a':1}", "[{'op':'test','path':'/a','value':2}]", "Test failed at /a");
+        checkFailure("{'a':{'b':1}}", "[{'op':'move','from':'/a','path':'/a/b/c'}]",
+                "Cannot move a value into itself: /a to /a/b/c");
+        checkFailure("{'a':1}", "[{'op':'bogus','path':'/a'}]", "Unknown operation: bogus");
+        checkFailure("{'a':1}", "[{'op':'add','value':1}]", "Operation has no path");
+    }
+
+    private static void checkFailure(final String doc, final String patch, final String message) {
+        try {
+            JsonPatch.apply(read(doc), (JList) read(patch));
+            fail("Should have failed: " + patch);
+        } catch (final JsonPatchException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+
+    @Test
+    public void mergePatch() {
+        // The example from RFC 7386 section 3.
+        final Object source = read("{'title':'Goodbye!','author':{'givenName':'John','familyName':'Doe'},"
+                + "'tags':['example','sample'],'content':'This will be unchanged'}");
+        final Object patch = read("{'title':'Hello!','phoneNumber':'+01-123-456-7890','author':{'familyName':null},"
+                + "'tags':['example']}");
+        final Object target = read("{'title':'Hello!','author':{'givenName':'John'},'tags':['example'],"
+                + "'content':'This will be unchanged','phoneNumber':'+01-123-456-7890'}");
+
+        assertEquals(target, JsonPatch.mergeApply(JUtil.deepCopy(source), patch));
+        assertEquals(patch, JsonPatch.mergeDiff(source, target));
+        assertEquals(new JMap(), JsonPatch.mergeDiff(source, JUtil.deepCopy(source)));
+    }
+
+    @Test
+    public void mergePatchCases() {
+        // Test cases from RFC 7386 appendix A.
+        checkMerge("{'a':'b'}", "{'a':'c'}", "{'a':'c'}");
+        checkMerge("{'a':'b'}", "{'b':'c'}", "{'a':'b','b':'c'}");
+        checkMerge("{'a':'b'}", "{'a':null}", "{}");
+        checkMerge("{'a':'b','b':'c'}", "{'a':null}", "{'b':'c'}");
+        checkMerge("{'a':['b']}", "{'a':'c'}", "{'a':'c'}");
+        checkMerge("{'a':'c'}", "{'a':['b']}", "{'a':['b']}");
+        checkMerge("{'a':{'b':'c'}}", "{'a':{'b':'d','c':null}}", "{'a':{'b':'d'}}");
+        checkMerge("{'a':[{'b':'c'}]}", "{'a':[1]}", "{'a':[1]}");
+        checkMerge("['a','b']", "['c','d']", "['c','d']");
+        checkMerge("{'a':'b'}", "['c']", "['c']");
+        checkMerge("{'a':'foo'}", "null", "null");
+        checkMerge("{'a':'foo'}", "'bar'", "'bar'");
+        checkMerge("{'e':null}", "{'a':1}", "{'e':null,'a':1}");
+        checkMerge("[1,2]", "{'a':'b','c':null}", "{'a':'b'}");
+        checkMerge("{}", "{'a':{'bb':{'ccc':null}}}", "{'a':{'bb':{}}}");
+    }
+
+    @Test
+    public void mergePatchOtherMaps() {
+        final Map<String, Object> author = new LinkedHashMap<>();
+        author.put("givenName", "John");
+        author.put("familyName", "Doe");
+        final Map<String, Object> document = new LinkedHashMap<>();
+        document.put("title", "Goodbye!");
+        document.put("author", author);
+
+        final Object result = JsonPatch.mergeApply(document, read("{'title':'Hello!','author':{'familyName':null}}"));
+        assertTrue(JsonWriter.writeToString(result),
+                JUtil.equals(read("{'title':'Hello!','author':{'givenName':'John'}}"), result));
+        // The maps are copied rather than changed.
+        assertEquals("Goodbye!", document.get("title"));
+        assertEquals("Doe", author.get("familyName"));
+    }
+
+    private static void checkMerge(final String doc, final String patch, final String expected) {
+        final Object result = JsonPatch.mergeApply(read(doc), read(patch));
+        assertTrue(JsonWriter.writeToString(result), JUtil.equals(read(expected), result));
+    }
+
+    @Test
+    public void mergeDiffNumbers() {
+        final JMap source = new JMap().put("a", new BigDecimal("1.50")).put("b", 2);
+        final JMap target = new JMap().put("a", 1.5).put("b", 3L);
+        assertEquals(new JMap().put("b", 3L), JsonPatch.mergeDiff(source, target));
+    }
+}
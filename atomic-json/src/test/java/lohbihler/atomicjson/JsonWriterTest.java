@@ -9,6 +9,7 @@ package lohbihler.atomicjson;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.math.BigDecimal;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -37,4 +38,36 @@ public class JsonWriterTest {
 
         Assert.assertEquals(before, after);
     }
+
+    @Test
+    public void numbers() {
+        final JList list = new JList() //
+                .jadd(new BigDecimal("1.23")) //
+                .jadd(new BigDecimal("-0.005")) //
+                .jadd(12) //
+                .jadd(-34L) //
+                .jadd((short) 5) //
+                .jadd((byte) -6) //
+                .jadd(0.1) //
+                .jadd(1e30) //
+                .jadd(2.5F);
+        Assert.assertEquals("[1.23,-0.005,12,-34,5,-6,0.1,1.0E30,2.5]", JsonWriter.writeToString(list));
+    }
+
+    @Test
+    public void canonical() throws IOException {
+        final JMap map1 = new JsonReader(
+                "{\"z\":1.50, \"a\":[1.0, 2e2, 0.000001, 1e-7, 1e30], \"m\":{\"y\":0.0, \"b\":null}}").read();
+        final JMap map2 = new JMap() //
+                .put("m", new JMap().put("b", null).put("y", 0)) //
+                .put("a", new JList().jadd(1).jadd(200L).jadd(new BigDecimal("0.0000010")).jadd(1e-7).jadd(1e30)) //
+                .put("z", 1.5);
+
+        final String expected = "{\"a\":[1,200,0.000001,1E-7,1E+30],\"m\":{\"b\":null,\"y\":0},\"z\":1.5}";
+        Assert.assertEquals(expected, JsonWriter.writeToCanonicalString(map1));
+        Assert.assertEquals(expected, JsonWriter.writeToCanonicalString(map2));
+
+        final JList primitive = new JsonReader("[1.50, 2.0, 3]").withPrimitiveArrays(true).read();
+        Assert.assertEquals("[1.5,2,3]", JsonWriter.writeToCanonicalString(primitive));
+    }
 }
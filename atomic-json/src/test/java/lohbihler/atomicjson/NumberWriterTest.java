@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.atomicjson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NumberWriterTest {
+    private final char[] buf = new char[NumberWriter.BUFFER_SIZE];
+
+    @Test
+    public void longs() {
+        final long[] values = { 0, 1, -1, 9, 10, 99, 100, 12345, -12345, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Integer.MAX_VALUE + 1L, 999_999_999_999_999_999L, 1_000_000_000_000_000_000L, Long.MAX_VALUE,
+                Long.MIN_VALUE, Long.MIN_VALUE + 1 };
+        for (final long value : values) {
+            assertEquals(Long.toString(value), longString(value));
+        }
+
+        final Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            final long value = random.nextLong() >> random.nextInt(64);
+            assertEquals(Long.toString(value), longString(value));
+        }
+    }
+
+    @Test
+    public void bigDecimals() {
+        final String[] values = { "0", "0.0", "0.00", "1", "-1", "1.23", "-1.23", "0.001", "-0.001", "123.456",
+                "1E+3", "-1.5E+3", "1.5E-10", "-1.5E-10", "12345678901234567.8", "123456789012345678.9",
+                "1234567890123456789", "1E+40", "1E-40", "0E+3", "0E-3", "9.99" };
+        for (final String value : values) {
+            final BigDecimal bd = new BigDecimal(value);
+            assertEquals(bd.toPlainString(), bigDecimalString(bd));
+        }
+
+        final Random random = new Random(2);
+        for (int i = 0; i < 100_000; i++) {
+            final BigDecimal bd = BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(50) - 25);
+            assertEquals(bd.toPlainString(), bigDecimalString(bd));
+        }
+    }
+
+    @Test
+    public void bigIntegers() {
+        assertEquals("12345", JsonWriter.writeToString(BigInteger.valueOf(12345)));
+        final BigInteger big = BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.TEN);
+        assertEquals(big.toString(), JsonWriter.writeToString(big));
+    }
+
+    @Test
+    public void doubleLayout() {
+        assertEquals("0.0", doubleString(0.0));
+        assertEquals("-0.0", doubleString(-0.0));
+        assertEquals("1.0", doubleString(1.0));
+        assertEquals("-1.0", doubleString(-1.0));
+        assertEquals("0.1", doubleString(0.1));
+        assertEquals("0.3", doubleString(0.3));
+        assertEquals("0.30000000000000004", doubleString(0.1 + 0.2));
+        assertEquals("1.23", doubleString(1.23));
+        assertEquals("0.001", doubleString(0.001));
+        assertEquals("1.0E-4", doubleString(0.0001));
+        assertEquals("1234567.0", doubleString(1234567));
+        assertEquals("1.0E7", doubleString(1e7));
+        assertEquals("1.0E23", doubleString(1e23));
+        assertEquals("0.002", doubleString(2e-3));
+        assertEquals("1.7976931348623157E308", doubleString(Double.MAX_VALUE));
+        assertEquals("2.2250738585072014E-308", doubleString(Double.MIN_NORMAL));
+        assertEquals("4.9E-324", doubleString(Double.MIN_VALUE));
+        assertEquals("9.007199254740992E15", doubleString(9007199254740992.0));
+        assertEquals("NaN", doubleString(Double.NaN));
+        assertEquals("Infinity", doubleString(Double.POSITIVE_INFINITY));
+        assertEquals("-Infinity", doubleString(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void doubleRoundTrip() {
+        final Random random = new Random(3);
+        for (int i = 0; i < 1_000_000; i++) {
+            final double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value) || Double.isInfinite(value))
+                continue;
+            checkDouble(value);
+        }
+
+        // Values with few significant digits, which exercise the shortening paths.
+        for (int i = 0; i < 100_000; i++) {
+            checkDouble(random.nextInt(100_000) / Math.pow(10, random.nextInt(30) - 10));
+        }
+
+        // Powers of 2, which have asymmetric rounding intervals.
+        for (int e = -1074; e <= 1023; e++) {
+            checkDouble(Math.scalb(1.0, e));
+        }
+    }
+
+    private void checkDouble(final double value) {
+        final String s = doubleString(value);
+        assertEquals(s, Double.doubleToLongBits(value), Double.doubleToLongBits(Double.parseDouble(s)));
+        // The result must never have more significant digits than the JDK's. The smallest subnormals are excluded
+        // because they are deliberately written with 2 digits, e.g. 9.9E-324 rather than 1.0E-323.
+        if (Math.abs(value) >= Double.MIN_NORMAL)
+            assertTrue(s + " vs " + Double.toString(value), digits(s) <= digits(Double.toString(value)));
+    }
+
+    private static int digits(final String s) {
+        return new BigDecimal(s).stripTrailingZeros().precision();
+    }
+
+    private String longString(final long value) {
+        return new String(buf, 0, NumberWriter.writeLong(value, buf, 0));
+    }
+
+    private String bigDecimalString(final BigDecimal value) {
+        final int len = NumberWriter.writeBigDecimal(value, buf, 0);
+        if (len == -1)
+            return value.toPlainString();
+        return new String(buf, 0, len);
+    }
+
+    private String doubleString(final double value) {
+        return new String(buf, 0, NumberWriter.writeDouble(value, buf, 0));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import lohbihler.warp.ClockListener;
+import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpScheduledExecutorService;
+
+/**
+ * The cost of advancing a WarpClock, depending on the number of tasks pending in a scheduler and the number of other
+ * listeners, both when nothing is due and when a task is due on each advance. The scheduler is inline so that due
+ * tasks run in the benchmark thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AdvanceBenchmark {
+    @Param({ "0", "1000", "100000" })
+    public int pendingTasks;
+
+    @Param({ "0", "10", "100" })
+    public int listeners;
+
+    private WarpClock clock;
+    private WarpScheduledExecutorService scheduler;
+    private final Runnable command = () -> {
+        // Nothing
+    };
+
+    @Setup
+    public void setup() {
+        clock = new WarpClock();
+        scheduler = new WarpScheduledExecutorService(clock, true);
+        // Far enough in the future that they are not reached by the benchmark.
+        for (int i = 0; i < pendingTasks; i++)
+            scheduler.schedule(command, TimeUnit.DAYS.toMinutes(3650) + i, TimeUnit.MINUTES);
+        for (int i = 0; i < listeners; i++)
+            clock.addListener(new ClockListener() {
+                @Override
+                public void clockUpdate(final LocalDateTime dateTime) {
+                    // Nothing
+                }
+            });
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public LocalDateTime advanceNothingDue() {
+        return clock.plusMillis(1);
+    }
+
+    @Benchmark
+    public LocalDateTime advanceTaskDue() {
+        scheduler.schedule(command, 1, TimeUnit.MILLISECONDS);
+        return clock.plusMillis(1);
+    }
+}
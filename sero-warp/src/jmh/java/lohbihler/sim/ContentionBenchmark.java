@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpScheduledExecutorService;
+
+/**
+ * The throughput of scheduling tasks from several threads at once while another thread advances the clock, so that
+ * the tasks become due and run. Change the number of scheduling threads with e.g. "-tg 8,1".
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentionBenchmark {
+    private WarpClock clock;
+    private WarpScheduledExecutorService scheduler;
+    private final Runnable command = () -> {
+        // Nothing
+    };
+
+    @Setup
+    public void setup() {
+        clock = new WarpClock();
+        scheduler = new WarpScheduledExecutorService(clock);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    @Group("scheduleWhileAdvancing")
+    @GroupThreads(4)
+    public ScheduledFuture<?> schedule() {
+        return scheduler.schedule(command, 1 + ThreadLocalRandom.current().nextInt(10_000), TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("scheduleWhileAdvancing")
+    @GroupThreads(1)
+    public LocalDateTime advance() {
+        return clock.plusMillis(1);
+    }
+}
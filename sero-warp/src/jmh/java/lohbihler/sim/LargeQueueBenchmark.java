@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import lohbihler.warp.ScheduleSpec;
+import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpScheduledExecutorService;
+
+/**
+ * The cost of scheduling large numbers of tasks, one at a time and in bulk, and of advancing the clock over them so
+ * that they all run. Each invocation handles all of the tasks, so divide by the number of tasks for the cost per task.
+ * The scheduler is inline so that the tasks run in the benchmark thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LargeQueueBenchmark {
+    private static final int STEPS = 1000;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int tasks;
+
+    private final Runnable command = () -> {
+        // Nothing
+    };
+    private final List<ScheduleSpec> specs = new ArrayList<>();
+    private WarpClock clock;
+    private WarpScheduledExecutorService scheduler;
+
+    @Setup
+    public void createSpecs() {
+        final Random random = new Random(tasks);
+        for (int i = 0; i < tasks; i++)
+            specs.add(new ScheduleSpec(command, 1 + random.nextInt(tasks), TimeUnit.MILLISECONDS));
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        clock = new WarpClock();
+        scheduler = new WarpScheduledExecutorService(clock, true);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public int schedule() {
+        for (final ScheduleSpec spec : specs)
+            scheduler.schedule(command, spec.getInitialDelay(), spec.getUnit());
+        // Include the merging of the tasks into the queue.
+        return scheduler.getQueueSize();
+    }
+
+    @Benchmark
+    public int scheduleAll() {
+        scheduler.scheduleAll(specs);
+        return scheduler.getQueueSize();
+    }
+
+    /**
+     * Advances the clock over the full range of delays of the pending tasks.
+     */
+    @Benchmark
+    public LocalDateTime advance(final Pending pending) {
+        final long step = tasks / STEPS + 1;
+        LocalDateTime time = null;
+        for (int i = 0; i < STEPS; i++)
+            time = pending.clock.plusMillis(step);
+        return time;
+    }
+
+    /**
+     * A scheduler in which all of the tasks are pending.
+     */
+    @State(Scope.Thread)
+    public static class Pending {
+        WarpClock clock;
+        WarpScheduledExecutorService scheduler;
+
+        @Setup(Level.Invocation)
+        public void setup(final LargeQueueBenchmark benchmark) {
+            clock = new WarpClock();
+            scheduler = new WarpScheduledExecutorService(clock, true);
+            scheduler.scheduleAll(benchmark.specs);
+            scheduler.getQueueSize();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpScheduledExecutorService;
+
+/**
+ * The throughput of scheduling and cancelling tasks - e.g. request timeouts that rarely fire - with the warp scheduler
+ * and with a ScheduledThreadPoolExecutor, from one thread and from several.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScheduleBenchmark {
+    @Param({ "warp", "stpe" })
+    public String implementation;
+
+    private ScheduledExecutorService scheduler;
+    private final Runnable command = () -> {
+        // Never runs
+    };
+
+    @Setup
+    public void setup() {
+        if ("warp".equals(implementation))
+            scheduler = new WarpScheduledExecutorService(new WarpClock());
+        else {
+            final ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1);
+            stpe.setRemoveOnCancelPolicy(true);
+            scheduler = stpe;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean scheduleCancel() {
+        final ScheduledFuture<?> future = scheduler.schedule(command, 1, TimeUnit.HOURS);
+        return future.cancel(false);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean scheduleCancelContended() {
+        final ScheduledFuture<?> future = scheduler.schedule(command, 1, TimeUnit.HOURS);
+        return future.cancel(false);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpUtils;
+
+/**
+ * The latency from advancing a WarpClock to a thread in WarpUtils.sleep waking up and signalling back, compared with
+ * the same hand-off between two threads without the clock, and with the wake-up of a task scheduled with no delay in a
+ * ScheduledThreadPoolExecutor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SleepBenchmark {
+    private WarpClock clock;
+    private Thread sleeper;
+    private Thread handOff;
+    private final Semaphore go = new Semaphore(0);
+    private final Semaphore ack = new Semaphore(0);
+    private ScheduledThreadPoolExecutor stpe;
+    private volatile boolean running;
+
+    @Setup
+    public void setup() {
+        clock = new WarpClock();
+        running = true;
+
+        sleeper = new Thread(() -> {
+            try {
+                while (running) {
+                    WarpUtils.sleep(clock, 1, TimeUnit.SECONDS);
+                    ack.release();
+                }
+            } catch (final InterruptedException e) {
+                // Done
+            }
+        });
+        sleeper.start();
+
+        handOff = new Thread(() -> {
+            try {
+                while (running) {
+                    go.acquire();
+                    ack.release();
+                }
+            } catch (final InterruptedException e) {
+                // Done
+            }
+        });
+        handOff.start();
+
+        stpe = new ScheduledThreadPoolExecutor(1);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        sleeper.interrupt();
+        handOff.interrupt();
+        sleeper.join();
+        handOff.join();
+        stpe.shutdownNow();
+    }
+
+    @Benchmark
+    public void warpSleepWakeUp() throws InterruptedException {
+        // Wait for the sleeper to set its timeout, so that the advance wakes it.
+        while (clock.getTimeoutCount() == 0)
+            Thread.yield();
+        clock.plusSeconds(1);
+        ack.acquire();
+    }
+
+    @Benchmark
+    public void threadHandOff() throws InterruptedException {
+        go.release();
+        ack.acquire();
+    }
+
+    @Benchmark
+    public void stpeWakeUp() throws InterruptedException {
+        stpe.schedule(() -> ack.release(), 0, TimeUnit.NANOSECONDS);
+        ack.acquire();
+    }
+}
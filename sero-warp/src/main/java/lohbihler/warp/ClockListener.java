@@ -16,4 +16,15 @@ public interface ClockListener {
      *            the instant at which this method is called
      */
     void clockUpdate(LocalDateTime dateTime);
+
+    /**
+     * Used by WarpClock to jump directly from event to event. Listeners that do not know when they next need to be
+     * updated can use the default.
+     *
+     * @return the time, in epoch nanos, at which this listener next has something to do, or Long.MAX_VALUE if it has
+     *         nothing pending.
+     */
+    default long getNextDeadline() {
+        return Long.MAX_VALUE;
+    }
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+/**
+ * A cron-like calendar schedule. Expressions have 5 fields - minute, hour, day of month, month, and day of week - or 6
+ * with a leading seconds field. Each field is "*", "?", a value, a range "a-b", or a step "*&#47;n", "a/n" or "a-b/n",
+ * or a comma-separated list of these. Months and days of the week can be given as JAN-DEC and SUN-SAT. Days of the
+ * week are 0-7, where 0 and 7 are both Sunday. As in standard cron, if both the day of month and the day of week are
+ * restricted, a day matches if either does. The macros @yearly, @annually, @monthly, @weekly, @daily, @midnight and
+ * @hourly are also accepted.
+ *
+ * Each field is compiled into a bitset when parsed, so that finding the next fire time only needs a few bit
+ * operations per field rather than stepping through time.
+ *
+ * Fire times are wall-clock times in a time zone. A time that does not exist because of a daylight saving transition
+ * fires at the equivalent time after the transition, e.g. 02:30 fires at 03:30 on the day the clocks go forward. A
+ * wall-clock time that occurs twice when the clocks go back fires only once.
+ *
+ * Usage: CronExpression.parse("0 9 * * MON-FRI").next(zonedDateTime)
+ *
+ * @author Matthew Lohbihler
+ */
+public class CronExpression {
+    private static final String[] MONTHS = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT",
+            "NOV", "DEC" };
+    private static final String[] DAYS = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+    // How far to search for a match before deciding that there is none, e.g. for "0 0 30 2 *".
+    private static final int MAX_YEARS = 8;
+
+    public static CronExpression parse(final String expression) {
+        String expr = expression.trim();
+        if (expr.startsWith("@"))
+            expr = macro(expr);
+
+        final String[] fields = expr.split("\\s+");
+        if (fields.length != 5 && fields.length != 6)
+            throw new IllegalArgumentException("Cron expression must have 5 or 6 fields: " + expression);
+        final int offset = fields.length - 5;
+
+        final long seconds = offset == 0 ? 1L : parseField(fields[0], 0, 59, null, expression);
+        final long minutes = parseField(fields[offset], 0, 59, null, expression);
+        final long hours = parseField(fields[offset + 1], 0, 23, null, expression);
+        final long daysOfMonth = parseField(fields[offset + 2], 1, 31, null, expression);
+        final long months = parseField(fields[offset + 3], 1, 12, MONTHS, expression);
+        long daysOfWeek = parseField(fields[offset + 4], 0, 7, DAYS, expression);
+        // 7 is also Sunday.
+        if ((daysOfWeek & 1L << 7) != 0)
+            daysOfWeek = (daysOfWeek | 1) & ~(1L << 7);
+
+        return new CronExpression(expression, seconds, minutes, hours, daysOfMonth, months, daysOfWeek,
+                isRestricted(fields[offset + 2]), isRestricted(fields[offset + 4]));
+    }
+
+    private static String macro(final String macro) {
+        switch (macro.toLowerCase(Locale.ROOT)) {
+        case "@yearly":
+        case "@annually":
+            return "0 0 1 1 *";
+        case "@monthly":
+            return "0 0 1 * *";
+        case "@weekly":
+            return "0 0 * * 0";
+        case "@daily":
+        case "@midnight":
+            return "0 0 * * *";
+        case "@hourly":
+            return "0 * * * *";
+        default:
+            throw new IllegalArgumentException("Unknown cron macro: " + macro);
+        }
+    }
+
+    private static boolean isRestricted(final String field) {
+        return !"*".equals(field) && !"?".equals(field);
+    }
+
+    /**
+     * Parses a field into a bitset, where bit n is set if the value n matches.
+     */
+    private static long parseField(final String field, final int min, final int max, final String[] names,
+            final String expression) {
+        long bits = 0;
+        for (final String part : field.split(",")) {
+            int step = 1;
+            String range = part;
+            final int slash = part.indexOf('/');
+            if (slash != -1) {
+                step = parseValue(part.substring(slash + 1), 1, max, null, expression);
+                range = part.substring(0, slash);
+            }
+
+            final int from;
+            final int to;
+            if ("*".equals(range) || "?".equals(range)) {
+                from = min;
+                to = max;
+            } else {
+                final int dash = range.indexOf('-');
+                if (dash == -1) {
+                    from = parseValue(range, min, max, names, expression);
+                    // "a/n" means from a to the end.
+                    to = slash == -1 ? from : max;
+                } else {
+                    from = parseValue(range.substring(0, dash), min, max, names, expression);
+                    to = parseValue(range.substring(dash + 1), min, max, names, expression);
+                }
+            }
+            if (from > to)
+                throw new IllegalArgumentException("Invalid range '" + part + "' in cron expression: " + expression);
+
+            for (int i = from; i <= to; i += step)
+                bits |= 1L << i;
+        }
+        return bits;
+    }
+
+    private static int parseValue(final String value, final int min, final int max, final String[] names,
+            final String expression) {
+        if (names != null) {
+            final String upper = value.toUpperCase(Locale.ROOT);
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(upper))
+                    return i + (min == 1 ? 1 : 0);
+            }
+        }
+
+        final int i;
+        try {
+            i = Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' in cron expression: " + expression, e);
+        }
+        if (i < min || i > max)
+            throw new IllegalArgumentException("Value " + i + " out of range in cron expression: " + expression);
+        return i;
+    }
+
+    private final String expression;
+    private final long seconds;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+    private final boolean daysOfMonthRestricted;
+    private final boolean daysOfWeekRestricted;
+
+    private CronExpression(final String expression, final long seconds, final long minutes, final long hours,
+            final long daysOfMonth, final long months, final long daysOfWeek, final boolean daysOfMonthRestricted,
+            final boolean daysOfWeekRestricted) {
+        this.expression = expression;
+        this.seconds = seconds;
+        this.minutes = minutes;
+        this.hours = hours;
+        this.daysOfMonth = daysOfMonth;
+        this.months = months;
+        this.daysOfWeek = daysOfWeek;
+        this.daysOfMonthRestricted = daysOfMonthRestricted;
+        this.daysOfWeekRestricted = daysOfWeekRestricted;
+    }
+
+    /**
+     * @return the next fire time strictly after the given time, in the given time's zone, or null if there is none.
+     */
+    public ZonedDateTime next(final ZonedDateTime after) {
+        final ZoneId zone = after.getZone();
+        LocalDateTime local = after.toLocalDateTime();
+        while (true) {
+            local = next(local);
+            if (local == null)
+                return null;
+            // Prefer the offset of the given time, so that in an overlap the wall-clock time that has already passed
+            // is not repeated.
+            final ZonedDateTime zoned = ZonedDateTime.ofLocal(local, zone, after.getOffset());
+            if (zoned.isAfter(after))
+                return zoned;
+        }
+    }
+
+    /**
+     * @return the next matching local date time strictly after the given one, or null if there is none.
+     */
+    public LocalDateTime next(final LocalDateTime after) {
+        LocalDateTime t = after.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+        final int endYear = t.getYear() + MAX_YEARS;
+
+        while (t.getYear() <= endYear) {
+            if ((months & 1L << t.getMonthValue()) == 0) {
+                final int month = nextBit(months, t.getMonthValue() + 1, 12);
+                if (month == -1)
+                    t = LocalDate.of(t.getYear() + 1, nextBit(months, 1, 12), 1).atStartOfDay();
+                else
+                    t = LocalDate.of(t.getYear(), month, 1).atStartOfDay();
+                continue;
+            }
+
+            if (!matchesDay(t.toLocalDate())) {
+                t = t.toLocalDate().plusDays(1).atStartOfDay();
+                continue;
+            }
+
+            if ((hours & 1L << t.getHour()) == 0) {
+                final int hour = nextBit(hours, t.getHour() + 1, 23);
+                if (hour == -1)
+                    t = t.toLocalDate().plusDays(1).atStartOfDay();
+                else
+                    t = t.toLocalDate().atTime(hour, 0);
+                continue;
+            }
+
+            if ((minutes & 1L << t.getMinute()) == 0) {
+                final int minute = nextBit(minutes, t.getMinute() + 1, 59);
+                if (minute == -1)
+                    t = t.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+                else
+                    t = t.truncatedTo(ChronoUnit.HOURS).withMinute(minute);
+                continue;
+            }
+
+            if ((seconds & 1L << t.getSecond()) == 0) {
+                final int second = nextBit(seconds, t.getSecond() + 1, 59);
+                if (second == -1)
+                    t = t.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+                else
+                    t = t.withSecond(second);
+                continue;
+            }
+
+            return t;
+        }
+        return null;
+    }
+
+    private boolean matchesDay(final LocalDate date) {
+        final boolean dom = (daysOfMonth & 1L << date.getDayOfMonth()) != 0;
+        // DayOfWeek is 1 (Monday) to 7 (Sunday), and Sunday is bit 0.
+        final boolean dow = (daysOfWeek & 1L << date.getDayOfWeek().getValue() % 7) != 0;
+        if (daysOfMonthRestricted && daysOfWeekRestricted)
+            return dom || dow;
+        return dom && dow;
+    }
+
+    /**
+     * @return the lowest set bit from index from to index to, inclusive, or -1 if there is none.
+     */
+    private static int nextBit(final long bits, final int from, final int to) {
+        if (from > to)
+            return -1;
+        final long masked = bits & -1L << from;
+        if (masked == 0)
+            return -1;
+        final int bit = Long.numberOfTrailingZeros(masked);
+        return bit <= to ? bit : -1;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
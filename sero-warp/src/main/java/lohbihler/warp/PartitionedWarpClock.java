@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a simulation that is split into partitions, each with its own WarpClock, on several cores. Each partition is
+ * an independent group of listeners and schedulers - e.g. a WarpScheduledExecutorService in inline mode - that only
+ * affects the others by sending them events through Partition.send, with a delay of at least the lookahead.
+ *
+ * The clocks are advanced conservatively in windows: from the earliest pending event of any partition, every partition
+ * runs its events up to one lookahead later in parallel with the others. No partition can receive an event within
+ * the window from another, since events that are sent arrive at least a lookahead after they were sent, so the
+ * partitions do not need to coordinate within a window. At the end of each window all of the clocks are at the same
+ * time, which is the global time, and the events that were sent are handed to their target partitions. Time in which
+ * no partition has anything to do is skipped. The longer the lookahead, the fewer the windows and the more work that
+ * is done in parallel.
+ *
+ * Runs are reproducible if each partition is: sent events are delivered in the order of their senders' creation, and
+ * in the order sent. The clocks of partitions wait for quiescence, so the work of schedulers that are not inline is
+ * finished by the end of each window, but such work must not block waiting for the clock.
+ *
+ * Usage: create partitions with newPartition, schedule their tasks on their clocks, and then call advance or
+ * advanceUntil. Partitions must not be added while the clock is being advanced.
+ *
+ * @author Matthew Lohbihler
+ */
+public class PartitionedWarpClock {
+    private final ZoneId zoneId;
+    private final long lookahead;
+    private final ExecutorService executorService;
+    private final List<Partition> partitions = new ArrayList<>();
+    private volatile long epochNanos;
+
+    public PartitionedWarpClock(final ZoneId zoneId, final LocalDateTime start, final long lookahead,
+            final TimeUnit unit) {
+        this(zoneId, start, lookahead, unit, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param zoneId
+     *            the time zone of the clocks
+     * @param start
+     *            the time at which the clocks start
+     * @param lookahead
+     *            the minimum delay of events that are sent between partitions. Must be positive.
+     * @param unit
+     * @param threads
+     *            the number of threads that run partitions, including the thread that advances the clock
+     */
+    public PartitionedWarpClock(final ZoneId zoneId, final LocalDateTime start, final long lookahead,
+            final TimeUnit unit, final int threads) {
+        if (lookahead <= 0)
+            throw new IllegalArgumentException("lookahead must be positive");
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        this.zoneId = zoneId;
+        this.lookahead = unit.toNanos(lookahead);
+        epochNanos = WarpClock.toEpochNanos(start, zoneId);
+        executorService = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, r -> {
+            final Thread thread = new Thread(r, "PartitionedWarpClock");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a partition with a new clock at the current global time.
+     */
+    public Partition newPartition() {
+        final WarpClock clock = new WarpClock(zoneId, getDateTime());
+        clock.setAwaitQuiescence(true);
+        final Partition partition = new Partition(clock);
+        synchronized (partitions) {
+            partitions.add(partition);
+        }
+        return partition;
+    }
+
+    public List<Partition> getPartitions() {
+        synchronized (partitions) {
+            return Collections.unmodifiableList(new ArrayList<>(partitions));
+        }
+    }
+
+    public long getLookahead(final TimeUnit unit) {
+        return unit.convert(lookahead, TimeUnit.NANOSECONDS);
+    }
+
+    public ZoneId getZone() {
+        return zoneId;
+    }
+
+    /**
+     * @return the global time in epoch nanos, i.e. the time at the end of the last window.
+     */
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    public LocalDateTime getDateTime() {
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(0, epochNanos), zoneId);
+    }
+
+    /**
+     * Advances all of the partitions by the given amount. See advanceUntil.
+     *
+     * @return the new global date time
+     */
+    public LocalDateTime advance(final long amount, final TimeUnit unit) {
+        return advanceUntil(epochNanos + unit.toNanos(amount));
+    }
+
+    /**
+     * Advances all of the partitions to the given date time, window by window, running the partitions that have events
+     * in a window in parallel.
+     *
+     * @return the new global date time
+     */
+    public LocalDateTime advanceUntil(final LocalDateTime end) {
+        return advanceUntil(WarpClock.toEpochNanos(end, zoneId));
+    }
+
+    private LocalDateTime advanceUntil(final long endNanos) {
+        final List<Partition> parts = getPartitions();
+        final long[] deadlines = new long[parts.size()];
+        while (true) {
+            deliverEvents(parts);
+
+            long next = Long.MAX_VALUE;
+            for (int i = 0; i < deadlines.length; i++) {
+                deadlines[i] = parts.get(i).clock.getNextDeadline();
+                next = Math.min(next, deadlines[i]);
+            }
+            if (next >= endNanos)
+                break;
+
+            // Events at the horizon itself still cannot be affected by any other partition.
+            final long start = Math.max(next, epochNanos);
+            long horizon = start + lookahead - 1;
+            if (horizon < start || horizon > endNanos)
+                horizon = endNanos;
+            runWindow(parts, deadlines, horizon);
+        }
+
+        // Run the events at the end itself, if any.
+        runWindow(parts, deadlines, Math.max(endNanos, epochNanos));
+        deliverEvents(parts);
+        return getDateTime();
+    }
+
+    /**
+     * Advances all of the partitions to the horizon. Partitions that have events up to it run in parallel, and the
+     * others only have their time updated.
+     *
+     * @param deadlines
+     *            the next deadlines of the partitions
+     */
+    private void runWindow(final List<Partition> parts, final long[] deadlines, final long horizon) {
+        final List<Partition> busy = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++) {
+            if (deadlines[i] <= horizon)
+                busy.add(parts.get(i));
+            else
+                parts.get(i).clock.advanceUntil(horizon);
+        }
+
+        final List<Future<?>> futures = new ArrayList<>();
+        if (executorService != null) {
+            for (int i = 1; i < busy.size(); i++) {
+                final Partition partition = busy.get(i);
+                futures.add(executorService.submit(() -> partition.clock.advanceUntil(horizon)));
+            }
+        } else {
+            for (int i = 1; i < busy.size(); i++)
+                busy.get(i).clock.advanceUntil(horizon);
+        }
+        if (!busy.isEmpty())
+            busy.get(0).clock.advanceUntil(horizon);
+
+        try {
+            for (final Future<?> future : futures)
+                future.get();
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+
+        epochNanos = horizon;
+    }
+
+    /**
+     * Hands the events that have been sent to their target partitions.
+     */
+    private static void deliverEvents(final List<Partition> parts) {
+        for (final Partition partition : parts) {
+            final List<Event> events;
+            synchronized (partition.outbox) {
+                if (partition.outbox.isEmpty())
+                    continue;
+                events = new ArrayList<>(partition.outbox);
+                partition.outbox.clear();
+            }
+            for (final Event event : events) {
+                event.target.clock.setTimeoutAt(() -> {
+                    event.command.run();
+                    return null;
+                }, event.arrival);
+            }
+        }
+    }
+
+    /**
+     * Stops the threads that run the partitions.
+     */
+    public void shutdown() {
+        if (executorService != null)
+            executorService.shutdown();
+    }
+
+    /**
+     * A group of listeners and schedulers that share a clock.
+     */
+    public class Partition {
+        private final WarpClock clock;
+        // Events that have been sent by this partition and not yet delivered.
+        private final List<Event> outbox = new ArrayList<>();
+
+        Partition(final WarpClock clock) {
+            this.clock = clock;
+        }
+
+        public WarpClock getClock() {
+            return clock;
+        }
+
+        /**
+         * Sends an event to another partition, or to this one. The command runs on the target's clock at the given
+         * delay after the current time of this partition's clock.
+         *
+         * @param target
+         *            the partition in which to run the command
+         * @param command
+         * @param delay
+         *            the delay, which must be at least the lookahead
+         * @param unit
+         */
+        public void send(final Partition target, final Runnable command, final long delay, final TimeUnit unit) {
+            final long nanos = unit.toNanos(delay);
+            if (nanos < lookahead)
+                throw new IllegalArgumentException("The delay of an event must be at least the lookahead");
+            final Event event = new Event(target, command, clock.getEpochNanos() + nanos);
+            synchronized (outbox) {
+                outbox.add(event);
+            }
+        }
+    }
+
+    static class Event {
+        final Partition target;
+        final Runnable command;
+        final long arrival;
+
+        Event(final Partition target, final Runnable command, final long arrival) {
+            this.target = target;
+            this.command = command;
+            this.arrival = arrival;
+        }
+    }
+}
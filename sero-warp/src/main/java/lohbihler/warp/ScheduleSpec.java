@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes a task to be scheduled with WarpScheduledExecutorService.scheduleAll: a command that first runs after the
+ * initial delay, and then repeatedly at a fixed rate of the given period. A period of 0 runs the command only once.
+ * The task can also be given its own slack, overriding the scheduler's. See WarpScheduledExecutorService.setSlack.
+ *
+ * @author Matthew Lohbihler
+ */
+public class ScheduleSpec {
+    private final Runnable command;
+    private final long initialDelay;
+    private final long period;
+    private final TimeUnit unit;
+    // -1 to use the scheduler's slack.
+    private final long slackNanos;
+
+    public ScheduleSpec(final Runnable command, final long initialDelay, final TimeUnit unit) {
+        this(command, initialDelay, 0, unit);
+    }
+
+    public ScheduleSpec(final Runnable command, final long initialDelay, final long period, final TimeUnit unit) {
+        this(command, initialDelay, period, unit, -1);
+    }
+
+    private ScheduleSpec(final Runnable command, final long initialDelay, final long period, final TimeUnit unit,
+            final long slackNanos) {
+        Objects.requireNonNull(command, "command");
+        Objects.requireNonNull(unit, "unit");
+        if (period < 0)
+            throw new IllegalArgumentException("period cannot be negative");
+        this.command = command;
+        this.initialDelay = initialDelay;
+        this.period = period;
+        this.unit = unit;
+        this.slackNanos = slackNanos;
+    }
+
+    /**
+     * @return a copy of this spec with the given slack.
+     */
+    public ScheduleSpec withSlack(final long slack, final TimeUnit slackUnit) {
+        if (slack < 0)
+            throw new IllegalArgumentException("slack cannot be negative");
+        return new ScheduleSpec(command, initialDelay, period, unit, slackUnit.toNanos(slack));
+    }
+
+    public Runnable getCommand() {
+        return command;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    public TimeUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return the slack in nanos, or -1 if the scheduler's slack is to be used.
+     */
+    public long getSlackNanos() {
+        return slackNanos;
+    }
+
+    public boolean isRepeating() {
+        return period > 0;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An array-based binary min-heap of tasks, ordered by their natural ordering. Insertion and removal of the head are
+ * O(log n), and peeking at the head is O(1). Elements track their position in the heap, so removal of an arbitrary
+ * element is also O(log n). An element can only be in one queue at a time.
+ *
+ * Not thread-safe. Callers must synchronize access.
+ *
+ * @author Matthew Lohbihler
+ */
+class TaskQueue<E extends Comparable<? super E> & TaskQueue.Element> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Implemented by the elements of the queue, which hold their index in the heap.
+     */
+    interface Element {
+        /**
+         * @return the index of the element in the heap, or -1 if it is not in a queue.
+         */
+        int getQueueIndex();
+
+        void setQueueIndex(int index);
+    }
+
+    private Object[] heap = new Object[INITIAL_CAPACITY];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    E peek() {
+        return (E) heap[0];
+    }
+
+    void add(final E e) {
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, size + (size >> 1));
+        siftUp(size++, e);
+    }
+
+    /**
+     * Adds all of the given elements. If there are at least as many elements being added as there are already in the
+     * queue, the heap is rebuilt bottom-up in O(n) time, rather than adding the elements one at a time in O(k log n).
+     */
+    @SuppressWarnings("unchecked")
+    void addAll(final Collection<? extends E> c) {
+        final int count = c.size();
+        if (count < size) {
+            for (final E e : c)
+                add(e);
+            return;
+        }
+
+        if (size + count > heap.length)
+            heap = Arrays.copyOf(heap, Math.max(size + count, heap.length + (heap.length >> 1)));
+        for (final E e : c) {
+            heap[size] = e;
+            e.setQueueIndex(size++);
+        }
+        for (int i = (size >>> 1) - 1; i >= 0; i--)
+            siftDown(i, (E) heap[i]);
+    }
+
+    @SuppressWarnings("unchecked")
+    E poll() {
+        if (size == 0)
+            return null;
+        final E result = (E) heap[0];
+        final E last = (E) heap[--size];
+        heap[size] = null;
+        if (size > 0)
+            siftDown(0, last);
+        result.setQueueIndex(-1);
+        return result;
+    }
+
+    /**
+     * Removes the given element from the queue.
+     *
+     * @return true if the element was in the queue.
+     */
+    @SuppressWarnings("unchecked")
+    boolean remove(final E e) {
+        final int index = e.getQueueIndex();
+        if (index < 0 || index >= size || heap[index] != e)
+            return false;
+
+        final E last = (E) heap[--size];
+        heap[size] = null;
+        if (index != size) {
+            // Move the last element into the hole, in whichever direction it needs to go.
+            siftDown(index, last);
+            if (heap[index] == last)
+                siftUp(index, last);
+        }
+        e.setQueueIndex(-1);
+        return true;
+    }
+
+    /**
+     * @return the elements of the queue, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    List<E> toList() {
+        final List<E> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            list.add((E) heap[i]);
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftUp(final int index, final E e) {
+        int i = index;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            final E p = (E) heap[parent];
+            if (e.compareTo(p) >= 0)
+                break;
+            heap[i] = p;
+            p.setQueueIndex(i);
+            i = parent;
+        }
+        heap[i] = e;
+        e.setQueueIndex(i);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void siftDown(final int index, final E e) {
+        int i = index;
+        final int half = size >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            E c = (E) heap[child];
+            final int right = child + 1;
+            if (right < size && c.compareTo((E) heap[right]) > 0)
+                c = (E) heap[child = right];
+            if (e.compareTo(c) <= 0)
+                break;
+            heap[i] = c;
+            c.setQueueIndex(i);
+            i = child;
+        }
+        heap[i] = e;
+        e.setQueueIndex(i);
+    }
+}
@@ -8,9 +8,20 @@
 package lohbihler.warp;
 
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionStage;
 
 public interface TimeoutFuture<V> {
     V get() throws CancellationException, InterruptedException, Exception;
 
     boolean cancel();
+
+    /**
+     * Returns a completion stage that completes when the timeout fires - with the result of its command, or
+     * exceptionally with the exception that it threw - or exceptionally with a CancellationException when it is
+     * cancelled. Dependent actions run on the thread that completes the timeout, generally the one updating the clock.
+     * Completing the stage does not affect the timeout.
+     *
+     * @return the completion stage
+     */
+    CompletionStage<V> toCompletionStage();
 }
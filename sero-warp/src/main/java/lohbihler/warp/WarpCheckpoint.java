@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot of the time of a WarpClock and of the tasks that were pending in a WarpScheduledExecutorService, created
+ * by WarpScheduledExecutorService.checkpoint and applied with restore. A checkpoint can be restored any number of
+ * times, so that several scenarios can branch from it without replaying the simulation up to it.
+ *
+ * A task is included if its command was registered with the scheduler, in which case the same command object is used
+ * when restoring, or if its command is Serializable, in which case the command is serialized when the checkpoint is
+ * created and each restore runs a fresh copy of it. Other tasks are skipped. Checkpoints are themselves Serializable
+ * if the keys of the keyed tasks are, so they can also be saved.
+ *
+ * @author Matthew Lohbihler
+ */
+public class WarpCheckpoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    enum Kind {
+        ONE_TIME, CALLABLE, FIXED_RATE, FIXED_DELAY, CRON
+    }
+
+    /**
+     * The state of a pending task.
+     */
+    static class TaskState implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Kind kind;
+        // Either the id of the registered command, or the serialized command.
+        final String commandId;
+        final byte[] serializedCommand;
+        // The key of a keyed task, or null.
+        final Object key;
+        final long nominal;
+        final long slack;
+        // The period or delay of a repeating task, in nanos.
+        final long period;
+        final String cron;
+
+        TaskState(final Kind kind, final String commandId, final byte[] serializedCommand, final Object key,
+                final long nominal, final long slack, final long period, final String cron) {
+            this.kind = kind;
+            this.commandId = commandId;
+            this.serializedCommand = serializedCommand;
+            this.key = key;
+            this.nominal = nominal;
+            this.slack = slack;
+            this.period = period;
+            this.cron = cron;
+        }
+    }
+
+    private final long epochNanos;
+    private final List<TaskState> tasks;
+    private final int skippedCount;
+
+    WarpCheckpoint(final long epochNanos, final List<TaskState> tasks, final int skippedCount) {
+        this.epochNanos = epochNanos;
+        this.tasks = Collections.unmodifiableList(new ArrayList<>(tasks));
+        this.skippedCount = skippedCount;
+    }
+
+    /**
+     * @return the time of the clock when the checkpoint was created, in epoch nanos
+     */
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    public Instant getInstant() {
+        return Instant.ofEpochSecond(0, epochNanos);
+    }
+
+    /**
+     * @return the number of tasks in the checkpoint
+     */
+    public int getTaskCount() {
+        return tasks.size();
+    }
+
+    /**
+     * @return the number of pending tasks that were left out of the checkpoint because their commands were neither
+     *         registered nor Serializable
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return the ids of the registered commands of the tasks, in the order of the futures returned by restore, with
+     *         null for tasks whose commands were serialized
+     */
+    public List<String> getCommandIds() {
+        final List<String> ids = new ArrayList<>(tasks.size());
+        for (final TaskState task : tasks)
+            ids.add(task.commandId);
+        return ids;
+    }
+
+    List<TaskState> getTasks() {
+        return tasks;
+    }
+}
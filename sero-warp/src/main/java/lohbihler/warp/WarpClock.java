@@ -15,18 +15,51 @@ import java.time.ZoneId;
 import java.time.temporal.TemporalAmount;
 import java.time.temporal.TemporalField;
 import java.time.temporal.TemporalUnit;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WarpClock extends Clock {
     private final ZoneId zoneId;
-    private LocalDateTime dateTime;
+    private volatile LocalDateTime dateTime;
+    /**
+     * The current time as nanoseconds since the epoch, cached from the date time so that time comparisons and millis()
+     * do not need to convert through the time zone. A long can represent times from 1677-09-21 to 2262-04-11.
+     */
+    private volatile long epochNanos;
     private final List<ClockListener> listeners = new CopyOnWriteArrayList<>();
 
+    /**
+     * Pending timeouts, ordered by deadline, so that an update only visits the ones that have expired. Kept separate
+     * from the listeners.
+     */
+    private final TaskQueue<TimeoutFutureImpl<?>> timeouts = new TaskQueue<>();
+    private long timeoutSequence;
+
+    // The driver that is advancing the clock in real time, if any.
+    private volatile WarpClockDriver driver;
+
+    /**
+     * Whether updates wait for quiescence, i.e. for all of the work that they trigger to complete, before returning.
+     */
+    private volatile boolean awaitQuiescence;
+    /**
+     * The number of units of work - generally tasks run by a WarpScheduledExecutorService - that are in flight and not
+     * blocked waiting for the clock.
+     */
+    private final AtomicInteger work = new AtomicInteger();
+    private final Object quiescenceMonitor = new Object();
+    // Set while the current thread is doing work that is counted.
+    private final ThreadLocal<Boolean> working = new ThreadLocal<>();
+
     public WarpClock() {
         this(ZoneId.systemDefault());
     }
@@ -35,11 +68,19 @@ public class WarpClock extends Clock {
         this(zoneId, LocalDateTime.now(Clock.system(zoneId)));
     }
 
+    /**
+     * @param zoneId
+     * @param dateTime
+     *            the start time. The clock holds its time as nanoseconds since the epoch in a long, so it supports
+     *            times from 1677-09-21 to 2262-04-11 UTC. Starting, setting or advancing the clock outside of that
+     *            range throws an IllegalArgumentException.
+     */
     public WarpClock(final ZoneId zoneId, final LocalDateTime dateTime) {
         Objects.requireNonNull(zoneId, "zoneId");
         Objects.requireNonNull(dateTime, "dateTime");
         this.zoneId = zoneId;
         this.dateTime = dateTime;
+        epochNanos = toEpochNanos(dateTime);
     }
 
     public TimeoutFuture<?> setTimeout(final Runnable command, final long timeout, final TimeUnit timeUnit) {
@@ -50,45 +91,132 @@ public class WarpClock extends Clock {
     }
 
     public <V> TimeoutFuture<V> setTimeout(final Callable<V> callable, final long timeout, final TimeUnit timeUnit) {
-        final LocalDateTime deadline = dateTime.plusNanos(timeUnit.toNanos(timeout));
-        final TimeoutFutureImpl<V> future = new TimeoutFutureImpl<>();
-        final ClockListener listener = new ClockListener() {
-            @Override
-            public void clockUpdate(final LocalDateTime dateTime) {
-                if (!dateTime.isBefore(deadline)) {
-                    if (!future.isCancelled()) {
-                        try {
-                            future.setResult(callable.call());
-                        } catch (final Exception e) {
-                            future.setException(e);
-                        }
-                    }
-                    listeners.remove(this);
-                }
-            }
-        };
-        listeners.add(listener);
+        // Add to the epoch nanos rather than the local date time, which needs a zone conversion, and is ambiguous when
+        // the clocks go back.
+        final long now = epochNanos;
+        final long nanos = timeUnit.toNanos(timeout);
+        long deadline = now + nanos;
+        if (nanos > 0 && deadline < now)
+            deadline = Long.MAX_VALUE;
+        else if (nanos < 0 && deadline > now)
+            deadline = Long.MIN_VALUE;
+        return setTimeoutAt(callable, deadline);
+    }
+
+    /**
+     * Sets a timeout that expires at the given time in epoch nanos.
+     */
+    <V> TimeoutFuture<V> setTimeoutAt(final Callable<V> callable, final long deadline) {
+        final TimeoutFutureImpl<V> future = new TimeoutFutureImpl<>(callable, deadline);
+        synchronized (timeouts) {
+            future.sequence = timeoutSequence++;
+            timeouts.add(future);
+        }
+        deadlineAdded(deadline);
         return future;
     }
 
-    class TimeoutFutureImpl<V> implements TimeoutFuture<V> {
+    /**
+     * Runs the timeouts that have expired as of the given time, in order of deadline.
+     */
+    private void fireTimeouts(final long now) {
+        while (true) {
+            final TimeoutFutureImpl<?> timeout;
+            synchronized (timeouts) {
+                if (timeouts.isEmpty() || timeouts.peek().deadline > now)
+                    break;
+                timeout = timeouts.poll();
+            }
+            timeout.fire();
+        }
+    }
+
+    /**
+     * @return the number of timeouts that have been set and have not yet expired or been cancelled.
+     */
+    public int getTimeoutCount() {
+        synchronized (timeouts) {
+            return timeouts.size();
+        }
+    }
+
+    private long getNextTimeoutDeadline() {
+        synchronized (timeouts) {
+            // Discard cancelled timeouts so that they are not reported.
+            while (!timeouts.isEmpty() && timeouts.peek().isCancelled())
+                timeouts.poll();
+            return timeouts.isEmpty() ? Long.MAX_VALUE : timeouts.peek().deadline;
+        }
+    }
+
+    class TimeoutFutureImpl<V> implements TimeoutFuture<V>, Comparable<TimeoutFutureImpl<?>>, TaskQueue.Element {
+        private final Callable<V> callable;
+        final long deadline;
+        long sequence;
+        // Guarded by the timeouts lock.
+        private int queueIndex = -1;
+
         private boolean success;
         private boolean cancelled;
         private Exception ex;
         private V result;
         private volatile boolean done;
+        // Threads that are waiting for the result.
+        private final List<Blocked> waiters = new ArrayList<>();
+        // Created on demand. Guarded by this.
+        private CompletableFuture<V> stage;
+
+        TimeoutFutureImpl(final Callable<V> callable, final long deadline) {
+            this.callable = callable;
+            this.deadline = deadline;
+        }
+
+        void fire() {
+            if (!isCancelled()) {
+                try {
+                    setResult(callable.call());
+                } catch (final Exception e) {
+                    setException(e);
+                }
+            }
+        }
 
         @Override
-        public V get() throws CancellationException, InterruptedException, Exception {
-            if (success)
+        public int compareTo(final TimeoutFutureImpl<?> that) {
+            final int result = Long.compare(deadline, that.deadline);
+            if (result != 0)
                 return result;
-            if (ex != null)
-                throw ex;
-            if (cancelled)
-                throw new CancellationException();
+            return Long.compare(sequence, that.sequence);
+        }
+
+        @Override
+        public int getQueueIndex() {
+            return queueIndex;
+        }
+
+        @Override
+        public void setQueueIndex(final int index) {
+            queueIndex = index;
+        }
 
+        @Override
+        public V get() throws CancellationException, InterruptedException, Exception {
             synchronized (this) {
-                wait();
+                while (!done) {
+                    final Blocked blocked = newBlocked();
+                    if (blocked != null) {
+                        waiters.add(blocked);
+                        blocked.block();
+                    }
+                    try {
+                        wait();
+                    } finally {
+                        if (blocked != null) {
+                            waiters.remove(blocked);
+                            unblock(blocked);
+                        }
+                    }
+                }
             }
 
             if (success)
@@ -103,32 +231,221 @@ public class WarpClock extends Clock {
         }
 
         @Override
-        public synchronized boolean cancel() {
-            if (!done) {
+        public boolean cancel() {
+            synchronized (this) {
+                if (done)
+                    return false;
                 cancelled = true;
                 done();
-                return true;
             }
-            return false;
+            completeStage();
+            // Remove the timeout right away so that timeouts that are set and then cancelled do not accumulate.
+            synchronized (timeouts) {
+                timeouts.remove(this);
+            }
+            return true;
+        }
+
+        void setResult(final V result) {
+            synchronized (this) {
+                if (done)
+                    return;
+                this.result = result;
+                success = true;
+                done();
+            }
+            completeStage();
         }
 
-        synchronized void setResult(final V result) {
-            this.result = result;
-            success = true;
-            done();
+        void setException(final Exception ex) {
+            synchronized (this) {
+                if (done)
+                    return;
+                this.ex = ex;
+                done();
+            }
+            completeStage();
         }
 
-        synchronized void setException(final Exception ex) {
-            this.ex = ex;
-            done();
+        @Override
+        public CompletionStage<V> toCompletionStage() {
+            synchronized (this) {
+                if (stage == null)
+                    stage = new CompletableFuture<>();
+            }
+            // In case this is already done.
+            completeStage();
+            return stage;
+        }
+
+        /**
+         * Completes the stage, if there is one. Called outside of the monitor so that dependent actions do not run
+         * while holding it.
+         */
+        private void completeStage() {
+            final CompletableFuture<V> s;
+            synchronized (this) {
+                if (stage == null || !done)
+                    return;
+                s = stage;
+            }
+            if (success)
+                s.complete(result);
+            else if (ex != null)
+                s.completeExceptionally(ex);
+            else
+                s.completeExceptionally(new CancellationException());
         }
 
         void done() {
+            for (final Blocked blocked : waiters)
+                blocked.wake();
             notifyAll();
             done = true;
         }
     }
 
+    public boolean isAwaitQuiescence() {
+        return awaitQuiescence;
+    }
+
+    /**
+     * When set, each update of the clock blocks until all of the work that it triggers has completed, including work
+     * that is scheduled by that work for the same instant. Work that is blocked waiting for the clock, e.g. in
+     * WarpUtils.sleep or a timed get on a scheduled future, does not prevent quiescence. This removes the need to sleep
+     * to let tasks run after advancing the clock.
+     *
+     * Work is tracked for the tasks of WarpScheduledExecutorServices using this clock. Threads that are woken by
+     * something other than the clock or a scheduled future, e.g. by a notify from application code, may not yet have
+     * resumed when the update returns.
+     *
+     * @param awaitQuiescence
+     */
+    public void setAwaitQuiescence(final boolean awaitQuiescence) {
+        this.awaitQuiescence = awaitQuiescence;
+    }
+
+    /**
+     * Blocks until all of the tracked work is complete or blocked waiting for the clock. Returns immediately if called
+     * from tracked work.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitQuiescence() throws InterruptedException {
+        if (working.get() != null)
+            // Waiting would wait for this thread.
+            return;
+        synchronized (quiescenceMonitor) {
+            while (work.get() > 0)
+                quiescenceMonitor.wait();
+        }
+    }
+
+    /**
+     * Called when work is handed off to be run, before it starts.
+     */
+    void beginWork() {
+        work.incrementAndGet();
+    }
+
+    /**
+     * Called when work has completed, or has blocked waiting for the clock.
+     */
+    void endWork() {
+        if (work.decrementAndGet() == 0) {
+            synchronized (quiescenceMonitor) {
+                quiescenceMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Runs work for which beginWork has already been called, and ends it on completion.
+     */
+    void runWork(final Runnable runnable) {
+        final Boolean previous = working.get();
+        working.set(Boolean.TRUE);
+        try {
+            runnable.run();
+        } finally {
+            if (previous == null)
+                working.remove();
+            endWork();
+        }
+    }
+
+    /**
+     * Called by a thread that is about to block waiting for the clock, or for other work. If the thread is doing
+     * counted work, the returned object is used to end the work while the thread is blocked. Whatever will wake the
+     * thread - e.g. a timeout - must be set up before calling block on it, so that the clock cannot see quiescence in
+     * between.
+     *
+     * @return the blocked work, or null if the thread is not doing counted work.
+     */
+    Blocked newBlocked() {
+        if (working.get() == null)
+            return null;
+        return new Blocked();
+    }
+
+    /**
+     * Called by a thread that has resumed after blocking.
+     */
+    static void unblock(final Blocked blocked) {
+        if (blocked != null)
+            blocked.wake();
+    }
+
+    /**
+     * Work that is blocked. Whatever wakes the blocked thread should call wake before doing so, so that the clock
+     * cannot see quiescence in between. If the thread wakes for some other reason, it calls wake itself.
+     */
+    class Blocked {
+        private final AtomicBoolean woken = new AtomicBoolean();
+
+        void block() {
+            endWork();
+        }
+
+        void wake() {
+            if (woken.compareAndSet(false, true))
+                beginWork();
+        }
+    }
+
+    synchronized void setDriver(final WarpClockDriver driver) {
+        if (driver != null && this.driver != null && this.driver != driver)
+            throw new IllegalStateException("The clock already has a driver");
+        this.driver = driver;
+    }
+
+    /**
+     * Called when something is scheduled to happen at the given time, so that a driver can wake up for it if
+     * necessary. Must not be called while holding a lock that is also taken by getNextDeadline.
+     */
+    void deadlineAdded(final long deadline) {
+        final WarpClockDriver d = driver;
+        if (d != null)
+            d.deadlineAdded(deadline);
+    }
+
+    /**
+     * Advances the clock to the given time, or updates it at the current time if the given time is earlier.
+     */
+    void advanceTo(final long newEpochNanos) {
+        fireUpdate(Math.max(newEpochNanos, epochNanos));
+    }
+
+    /**
+     * Sets the clock to the given time, which may be earlier than the current time, e.g. to restore a checkpoint.
+     * Pending timeouts keep their deadlines.
+     */
+    void rewindTo(final long newEpochNanos) {
+        if (driver != null)
+            throw new IllegalStateException("Cannot rewind a clock that is being driven");
+        fireUpdate(newEpochNanos);
+    }
+
     public void addListener(final ClockListener listener) {
         listeners.add(listener);
     }
@@ -210,6 +527,14 @@ public class WarpClock extends Clock {
         return fireUpdate(dateTime.plusNanos(nanos));
     }
 
+    /**
+     * Advances the clock by the given amount in increments of the given size. Intended for use with quiescence. See
+     * setAwaitQuiescence.
+     */
+    public LocalDateTime plus(final int amount, final TimeUnit unit, final int byAmount, final TimeUnit byUnit) {
+        return plus(amount, unit, byAmount, byUnit, 0, 0);
+    }
+
     public LocalDateTime plus(final int amount, final TimeUnit unit, final long endSleep) {
         return plus(amount, unit, 0, null, 0, endSleep);
     }
@@ -243,11 +568,117 @@ public class WarpClock extends Clock {
         return result;
     }
 
+    /**
+     * @return the earliest time, in epoch nanos, at which a timeout or listener has something to do, or Long.MAX_VALUE
+     *         if nothing is pending.
+     */
+    public long getNextDeadline() {
+        long next = getNextTimeoutDeadline();
+        for (final ClockListener l : listeners) {
+            final long deadline = l.getNextDeadline();
+            if (deadline < next)
+                next = deadline;
+        }
+        return next;
+    }
+
+    /**
+     * Advances the clock directly to the time of the next event, i.e. the earliest deadline of the timeouts and
+     * listeners.
+     *
+     * @return the new date time, or null if no listener has anything pending, in which case the clock is not changed.
+     */
+    public LocalDateTime advanceToNextEvent() {
+        final long next = getNextDeadline();
+        if (next == Long.MAX_VALUE)
+            return null;
+        return fireUpdate(Math.max(next, epochNanos));
+    }
+
+    /**
+     * Advances the clock by the given amount, jumping directly from event to event rather than stepping through the
+     * intervening time. The time taken is proportional to the number of events rather than the amount of time.
+     *
+     * Listeners are updated only at the times of their events, and at the end time. Work that listeners hand off to
+     * other threads may schedule further events after the clock has moved on, in which case they are fired at the next
+     * update.
+     *
+     * @return the new date time
+     */
+    public LocalDateTime advance(final long amount, final TimeUnit unit) {
+        return advanceUntil(dateTime.plusNanos(unit.toNanos(amount)));
+    }
+
+    /**
+     * Advances the clock to the given date time, jumping directly from event to event. See advance.
+     *
+     * @return the new date time
+     */
+    public LocalDateTime advanceUntil(final LocalDateTime end) {
+        final long endNanos = toEpochNanos(end);
+        fireUpdatesBefore(endNanos);
+        return fireUpdate(end, endNanos);
+    }
+
+    /**
+     * As advanceUntil, with the end given in epoch nanos, which is unambiguous.
+     */
+    LocalDateTime advanceUntil(final long endNanos) {
+        fireUpdatesBefore(endNanos);
+        return fireUpdate(endNanos);
+    }
+
+    /**
+     * Fires an update at each event that is due before the given time.
+     */
+    private void fireUpdatesBefore(final long endNanos) {
+        while (true) {
+            final long next = getNextDeadline();
+            if (next >= endNanos)
+                break;
+            fireUpdate(Math.max(next, epochNanos));
+        }
+    }
+
+    /**
+     * Advances the clock from event to event until no listener has anything pending. Note that this never returns if
+     * there are repeating tasks. Use advanceUntil in that case.
+     *
+     * @return the new date time
+     */
+    public LocalDateTime runUntilIdle() {
+        LocalDateTime result = dateTime;
+        while (true) {
+            final LocalDateTime next = advanceToNextEvent();
+            if (next == null)
+                return result;
+            result = next;
+        }
+    }
+
+    private LocalDateTime fireUpdate(final long newEpochNanos) {
+        // Use the given epoch nanos rather than converting back from the local date time, which may be ambiguous.
+        return fireUpdate(LocalDateTime.ofInstant(Instant.ofEpochSecond(0, newEpochNanos), zoneId), newEpochNanos);
+    }
+
     private LocalDateTime fireUpdate(final LocalDateTime newDateTime) {
+        return fireUpdate(newDateTime, toEpochNanos(newDateTime));
+    }
+
+    private LocalDateTime fireUpdate(final LocalDateTime newDateTime, final long newEpochNanos) {
+        epochNanos = newEpochNanos;
         dateTime = newDateTime;
+        fireTimeouts(newEpochNanos);
         for (final ClockListener l : listeners) {
             l.clockUpdate(newDateTime);
         }
+        if (awaitQuiescence) {
+            try {
+                awaitQuiescence();
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
         return dateTime;
     }
 
@@ -263,6 +694,31 @@ public class WarpClock extends Clock {
         return dateTime;
     }
 
+    /**
+     * @return the current time as nanoseconds since the epoch.
+     */
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    private long toEpochNanos(final LocalDateTime dateTime) {
+        return toEpochNanos(dateTime, zoneId);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the date time is outside of the range that a long of epoch nanos can represent
+     */
+    static long toEpochNanos(final LocalDateTime dateTime, final ZoneId zoneId) {
+        final Instant instant = dateTime.atZone(zoneId).toInstant();
+        try {
+            return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+        } catch (final ArithmeticException e) {
+            throw new IllegalArgumentException(
+                    "Date time " + dateTime + " is outside of the range of the clock, which is about 1677 to 2262", e);
+        }
+    }
+
     @Override
     public ZoneId getZone() {
         return zoneId;
@@ -275,6 +731,11 @@ public class WarpClock extends Clock {
 
     @Override
     public Instant instant() {
-        return dateTime.atZone(zoneId).toInstant();
+        return Instant.ofEpochSecond(0, epochNanos);
+    }
+
+    @Override
+    public long millis() {
+        return Math.floorDiv(epochNanos, 1_000_000L);
     }
 }
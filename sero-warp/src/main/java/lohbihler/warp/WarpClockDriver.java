@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives a WarpClock so that simulated time flows continuously at a multiple of real time, e.g. a rate of 3600 makes an
+ * hour pass every second. Rather than polling, the driver thread sleeps until the real time at which the next timeout
+ * or scheduled task is due, and then advances the clock exactly to its deadline. New deadlines that are earlier than
+ * the one being waited for wake the driver.
+ *
+ * So that readers of the clock see time move between events, the clock is also advanced at least once per tick of
+ * real time. A tick of 0 updates the clock only at events.
+ *
+ * The driver can be paused, resumed, and re-rated while running. Only one driver can run a clock at a time, and the
+ * clock should not be advanced by other means while the driver is running.
+ *
+ * @author Matthew Lohbihler
+ */
+public class WarpClockDriver {
+    static final Logger LOG = LoggerFactory.getLogger(WarpClockDriver.class);
+
+    private final WarpClock clock;
+    private final Object lock = new Object();
+
+    private double rate;
+    private long tickNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private boolean paused;
+    private Thread thread;
+
+    // The simulated time in epoch nanos at the wall time in System.nanoTime, from which the current time is computed.
+    private long baseSimulated;
+    private long baseWall;
+    // The deadline that the driver is currently waiting for, and whether an earlier one has been added since.
+    private volatile long target = Long.MAX_VALUE;
+    private volatile boolean changed;
+
+    public WarpClockDriver(final WarpClock clock, final double rate) {
+        this.clock = clock;
+        this.rate = checkRate(rate);
+    }
+
+    private static double checkRate(final double rate) {
+        if (!(rate > 0) || Double.isInfinite(rate))
+            throw new IllegalArgumentException("rate must be positive: " + rate);
+        return rate;
+    }
+
+    public WarpClockDriver withTick(final long tick, final TimeUnit unit) {
+        setTick(tick, unit);
+        return this;
+    }
+
+    /**
+     * Sets the maximum amount of real time between updates of the clock.
+     */
+    public void setTick(final long tick, final TimeUnit unit) {
+        synchronized (lock) {
+            tickNanos = unit.toNanos(tick);
+            lock.notifyAll();
+        }
+    }
+
+    public double getRate() {
+        synchronized (lock) {
+            return rate;
+        }
+    }
+
+    /**
+     * Changes the rate at which simulated time flows, starting from the current time.
+     */
+    public void setRate(final double rate) {
+        synchronized (lock) {
+            rebase(System.nanoTime());
+            this.rate = checkRate(rate);
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isRunning() {
+        synchronized (lock) {
+            return thread != null;
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (lock) {
+            return paused;
+        }
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (thread != null)
+                throw new IllegalStateException("Already running");
+            clock.setDriver(this);
+            baseSimulated = clock.getEpochNanos();
+            baseWall = System.nanoTime();
+            thread = new Thread(this::run, "WarpClockDriver");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public void stop() {
+        final Thread t;
+        synchronized (lock) {
+            t = thread;
+            if (t == null)
+                return;
+            thread = null;
+            lock.notifyAll();
+        }
+        try {
+            if (t != Thread.currentThread())
+                t.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        clock.setDriver(null);
+    }
+
+    /**
+     * Stops simulated time from flowing until resume is called.
+     */
+    public void pause() {
+        synchronized (lock) {
+            if (!paused) {
+                rebase(System.nanoTime());
+                paused = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public void resume() {
+        synchronized (lock) {
+            if (paused) {
+                baseWall = System.nanoTime();
+                paused = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Called by the clock when something has been scheduled for the given time.
+     */
+    void deadlineAdded(final long deadline) {
+        if (deadline < target) {
+            changed = true;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void rebase(final long wall) {
+        baseSimulated = simulatedTime(wall);
+        baseWall = wall;
+    }
+
+    private long simulatedTime(final long wall) {
+        if (paused)
+            return baseSimulated;
+        return baseSimulated + (long) ((wall - baseWall) * rate);
+    }
+
+    private void run() {
+        try {
+            drive();
+        } finally {
+            synchronized (lock) {
+                if (thread == Thread.currentThread())
+                    thread = null;
+                // Detach from the clock however the run ended, e.g. by an interrupt, unless the driver has been
+                // started again.
+                if (thread == null)
+                    clock.setDriver(null);
+            }
+        }
+    }
+
+    private void drive() {
+        while (true) {
+            // Any deadline added from here on may be earlier than the one found.
+            target = Long.MAX_VALUE;
+            changed = false;
+            // Get the next deadline outside of the lock, because the clock's listeners call deadlineAdded while holding
+            // their own locks.
+            final long next = clock.getNextDeadline();
+
+            final long advanceTo;
+            synchronized (lock) {
+                if (thread != Thread.currentThread())
+                    break;
+
+                if (paused) {
+                    waitNanos(0);
+                    continue;
+                }
+
+                final long now = simulatedTime(System.nanoTime());
+                if (next <= now) {
+                    // An event is due. Advance to exactly its deadline.
+                    advanceTo = next;
+                } else {
+                    target = next;
+                    if (changed)
+                        continue;
+
+                    // Wait until the next event is due, or for a tick.
+                    long wait = next == Long.MAX_VALUE ? Long.MAX_VALUE : (long) Math.ceil((next - now) / rate);
+                    if (tickNanos > 0 && tickNanos < wait)
+                        wait = tickNanos;
+                    waitNanos(wait == Long.MAX_VALUE ? 0 : Math.max(wait, 1));
+
+                    if (thread != Thread.currentThread() || paused || changed)
+                        continue;
+                    final long later = simulatedTime(System.nanoTime());
+                    if (next <= later)
+                        // The event is due. Go around again to advance to its deadline.
+                        continue;
+                    // A tick.
+                    advanceTo = later;
+                }
+            }
+
+            try {
+                clock.advanceTo(advanceTo);
+            } catch (final RuntimeException e) {
+                LOG.error("Error while advancing the clock", e);
+            }
+        }
+    }
+
+    /**
+     * Waits on the lock for the given number of nanos, or until notified if 0.
+     */
+    private void waitNanos(final long nanos) {
+        try {
+            if (nanos == 0)
+                lock.wait();
+            else
+                TimeUnit.NANOSECONDS.timedWait(lock, nanos);
+        } catch (final InterruptedException e) {
+            // Stop running.
+            thread = null;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executor services for use with WarpScheduledExecutorService.
+ *
+ * @author Matthew Lohbihler
+ */
+public class WarpExecutors {
+    // Executors.newVirtualThreadPerTaskExecutor, if the runtime has it. Looked up reflectively because this library
+    // targets Java 8.
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadPerTaskExecutor();
+
+    private static Method findVirtualThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the runtime supports virtual threads.
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor service that runs each task in a new virtual thread, so that large simulations in which
+     * many tasks block - e.g. in WarpUtils.sleep - do not need a platform thread per blocked task. On runtimes without
+     * virtual threads, a cached thread pool is returned instead.
+     *
+     * @return the executor service
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create a virtual thread executor", e);
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Creates an executor service that runs each task on the thread that submits it. A WarpScheduledExecutorService
+     * that uses it runs in inline mode. See WarpScheduledExecutorService(Clock, boolean).
+     *
+     * @return the executor service
+     */
+    public static ExecutorService newInlineExecutor() {
+        return new InlineExecutorService();
+    }
+
+    private WarpExecutors() {
+        // Static only
+    }
+}
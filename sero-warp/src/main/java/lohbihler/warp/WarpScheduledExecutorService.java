@@ -7,23 +7,51 @@
  */
 package lohbihler.warp;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import lohbihler.scheduler.ScheduledExecutorServiceVariablePool;
 
@@ -34,50 +62,323 @@ import lohbihler.scheduler.ScheduledExecutorServiceVariablePool;
  * @author Matthew
  */
 public class WarpScheduledExecutorService implements ScheduledExecutorService, ClockListener {
+    // The number of serial executors for tasks that have keys. A power of 2.
+    private static final int SERIAL_STRIPES = 64;
+
     private final WarpClock clock;
     private final ExecutorService executorService;
     private final ScheduledExecutorServiceVariablePool delegate;
-
-    private final List<ScheduleFutureImpl<?>> tasks = new ArrayList<>();
+    // The clock used by the delegate, if any.
+    private final Clock delegateClock;
+    private final boolean inline;
+    // In inline mode, ensures that only one thread at a time runs tasks.
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    private final TaskQueue<ScheduleFutureImpl<?>> tasks = new TaskQueue<>();
+    /**
+     * Tasks that have been scheduled but not yet moved into the queue, as a stack linked through the tasks. Scheduling
+     * pushes onto it without locking, so that threads that schedule tasks do not contend with each other or with clock
+     * updates on the queue's monitor. The stack is merged into the queue by whichever thread next reads the queue.
+     */
+    private final AtomicReference<ScheduleFutureImpl<?>> inbox = new AtomicReference<>();
+    // Orders tasks that have the same deadline by the order in which they were added.
+    private final AtomicLong sequencer = new AtomicLong();
+    // The number of tasks that have been handed to the executor and have not yet completed.
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // The default slack for new tasks, in nanos.
+    private volatile long slackNanos;
+    private final WarpSchedulerMetrics metrics = new WarpSchedulerMetrics(this);
+    private volatile ObjectName mxBeanName;
+    // Runs tasks that have a key. Tasks whose keys map to the same stripe run serially.
+    private final SerialExecutor[] serialExecutors = new SerialExecutor[SERIAL_STRIPES];
+    // Commands that are registered for checkpoints, by id and by identity. Guarded by commandsById.
+    private final Map<String, Object> commandsById = new HashMap<>();
+    private final Map<Object, String> idsByCommand = new IdentityHashMap<>();
     private boolean shutdown;
 
     public WarpScheduledExecutorService(final Clock clock) {
+        this(clock, false);
+    }
+
+    /**
+     * In inline mode, tasks are run on the thread that advances the clock, one at a time, in strict order of deadline,
+     * with tasks that have the same deadline run in the order in which they were scheduled. Tasks that become due
+     * while tasks are being run - e.g. a task that schedules another with no delay - are run in the same update. This
+     * makes simulations reproducible, and avoids thread hand-offs.
+     *
+     * The other executor methods (execute, submit, etc) also run their tasks on the calling thread, so tasks must not
+     * block waiting for the clock to advance. Inline mode has no effect if the clock is not a WarpClock.
+     *
+     * @param clock
+     * @param inline
+     *            whether to run tasks inline
+     */
+    public WarpScheduledExecutorService(final Clock clock, final boolean inline) {
+        this(clock, inline ? new InlineExecutorService() : null);
+    }
+
+    /**
+     * Creates a scheduler that runs its tasks on the given executor service, e.g. one created with
+     * WarpExecutors.newVirtualThreadPerTaskExecutor. The scheduler takes ownership of the executor service, and shuts
+     * it down when it is shut down. The executor service is not used if the clock is not a WarpClock.
+     *
+     * @param clock
+     * @param executorService
+     *            the executor service on which to run tasks, or null for a cached thread pool
+     */
+    public WarpScheduledExecutorService(final Clock clock, final ExecutorService executorService) {
         if (clock instanceof WarpClock) {
             this.clock = (WarpClock) clock;
             this.clock.addListener(this);
-            executorService = Executors.newCachedThreadPool();
+            this.executorService = executorService == null ? Executors.newCachedThreadPool() : executorService;
+            inline = executorService instanceof InlineExecutorService;
             delegate = null;
+            delegateClock = null;
         } else {
             this.clock = null;
-            executorService = null;
+            this.executorService = null;
+            inline = false;
             delegate = new ScheduledExecutorServiceVariablePool(clock);
+            delegateClock = clock;
+        }
+        for (int i = 0; i < SERIAL_STRIPES; i++)
+            serialExecutors[i] = new SerialExecutor();
+    }
+
+    /**
+     * Sets the default slack for tasks that are scheduled after this call: the amount of time by which a task may run
+     * late so that it can run together with other tasks. The deadlines of tasks that have slack are rounded up to a
+     * multiple of the slack, so that tasks with deadlines in the same window become due at the same time. Due tasks
+     * that have slack are then run one after another in a single submission to the executor, rather than each in its
+     * own, which reduces dispatch overhead and thread wake-ups. They should therefore not block. Individual tasks can
+     * be given their own slack with ScheduleSpec.withSlack. Fixed rate tasks keep their nominal rate, so the slack
+     * should be shorter than their period.
+     *
+     * If the clock is not a WarpClock, the delays of tasks are rounded up in the same way, so that their wake-ups
+     * coincide, but the tasks are not batched.
+     *
+     * @param slack
+     *            the slack, or 0 for none, which is the default
+     * @param unit
+     */
+    public void setSlack(final long slack, final TimeUnit unit) {
+        if (slack < 0)
+            throw new IllegalArgumentException("slack cannot be negative");
+        slackNanos = unit.toNanos(slack);
+    }
+
+    public long getSlack(final TimeUnit unit) {
+        return unit.convert(slackNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Rounds the given time up to a multiple of the slack, saturating at Long.MAX_VALUE.
+     */
+    static long align(final long epochNanos, final long slack) {
+        if (slack <= 0)
+            return epochNanos;
+        final long remainder = Math.floorMod(epochNanos, slack);
+        if (remainder == 0)
+            return epochNanos;
+        final long aligned = epochNanos - remainder + slack;
+        return aligned < epochNanos ? Long.MAX_VALUE : aligned;
+    }
+
+    /**
+     * In delegate mode, converts a delay into nanos, lengthened so that the deadline falls on a multiple of the slack.
+     */
+    private long alignedDelay(final long delay, final TimeUnit unit, final long slack) {
+        final long nanos = unit.toNanos(delay);
+        if (slack <= 0)
+            return nanos;
+        final long now = TimeUnit.MILLISECONDS.toNanos(delegateClock.millis());
+        return align(now + nanos, slack) - now;
+    }
+
+    public boolean isInline() {
+        return inline;
+    }
+
+    /**
+     * @return the number of tasks that have been handed to the executor and have not yet completed, including tasks
+     *         that are blocked.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * Hands the command to the executor, tracking it as in flight until it completes. The work is also tracked by the
+     * clock so that clock updates can wait for quiescence.
+     */
+    private void dispatch(final Runnable command) {
+        inFlight.incrementAndGet();
+        clock.beginWork();
+        try {
+            // The count is decremented within the work, so that it is up to date once the clock sees quiescence.
+            executorService.submit(() -> clock.runWork(() -> {
+                try {
+                    command.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }));
+        } catch (final RuntimeException e) {
+            inFlight.decrementAndGet();
+            clock.endWork();
+            throw e;
         }
     }
 
     @Override
     public void clockUpdate(final LocalDateTime dateTime) {
+        if (inline) {
+            drainLock.lock();
+            try {
+                runDueTasks();
+            } finally {
+                drainLock.unlock();
+            }
+        } else {
+            runDueTasks();
+        }
+    }
+
+    private void runDueTasks() {
+        final long now = clock.getEpochNanos();
+        // Due tasks that have slack, to be run together.
+        List<ScheduleFutureImpl<?>> batch = null;
+        List<ScheduleFutureImpl<?>> due = null;
         while (true) {
-            // Poll for a task.
-            final ScheduleFutureImpl<?> task;
+            // Take all of the due tasks under one lock, and run them outside of it. Running them - inline in
+            // particular - can schedule more tasks that are already due, so go around until there are none.
             synchronized (tasks) {
-                if (tasks.isEmpty())
-                    break;
-                task = tasks.get(0);
-                final long waitTime = task.getDelay(TimeUnit.MILLISECONDS);
-                if (waitTime > 0)
-                    break;
-                // Remove the task
-                tasks.remove(0);
-            }
-            if (!task.isCancelled()) {
-                // Execute the task
-                task.execute();
+                mergeInbox();
+                while (!tasks.isEmpty() && tasks.peek().deadline <= now) {
+                    if (due == null)
+                        due = new ArrayList<>();
+                    due.add(tasks.poll());
+                }
+            }
+            if (due == null || due.isEmpty())
+                break;
+
+            final long dueNanoTime = System.nanoTime();
+            for (final ScheduleFutureImpl<?> task : due) {
+                task.dueNanoTime = dueNanoTime;
+                if (!task.isCancelled()) {
+                    if (task.slack > 0 && task.serial == null && !inline) {
+                        if (batch == null)
+                            batch = new ArrayList<>();
+                        batch.add(task);
+                    } else {
+                        // Execute the task
+                        task.execute();
+                    }
+                }
+            }
+            due.clear();
+        }
+
+        if (batch != null) {
+            if (batch.size() == 1) {
+                batch.get(0).execute();
+            } else {
+                final List<ScheduleFutureImpl<?>> toRun = batch;
+                dispatch(() -> {
+                    for (final ScheduleFutureImpl<?> task : toRun) {
+                        try {
+                            task.runTask();
+                        } catch (final RuntimeException e) {
+                            // As with tasks that are submitted individually, the exception is dropped. Carry on with
+                            // the rest of the batch.
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Moves the tasks in the inbox into the queue, dropping any that have been cancelled. Must be called while
+     * synchronized on tasks.
+     */
+    private void mergeInbox() {
+        ScheduleFutureImpl<?> task = inbox.getAndSet(null);
+        while (task != null) {
+            final ScheduleFutureImpl<?> next = task.nextInInbox;
+            task.nextInInbox = null;
+            if (!task.isCancelled())
+                tasks.add(task);
+            task = next;
+        }
+    }
+
+    /**
+     * @return the number of scheduled tasks that are waiting to run. Cancelled tasks are removed from the queue, and so
+     *         are not counted. Always 0 if the clock is not a WarpClock.
+     */
+    public int getQueueSize() {
+        synchronized (tasks) {
+            mergeInbox();
+            return tasks.size();
+        }
+    }
+
+    @Override
+    public long getNextDeadline() {
+        synchronized (tasks) {
+            mergeInbox();
+            // Discard cancelled tasks so that they are not reported.
+            while (!tasks.isEmpty() && tasks.peek().isCancelled())
+                tasks.poll();
+            if (tasks.isEmpty())
+                return Long.MAX_VALUE;
+            return tasks.peek().deadline;
+        }
+    }
+
+    /**
+     * @return the metrics of this scheduler. Metrics are only collected if the clock is a WarpClock.
+     */
+    public WarpSchedulerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics of this scheduler with the platform MBean server, under the object name
+     * "lohbihler.warp:type=WarpScheduledExecutorService,name=&lt;name&gt;". The MXBean is unregistered when the
+     * scheduler is shut down.
+     *
+     * @param name
+     *            the name of the scheduler
+     * @return the object name
+     * @throws JMException
+     *             if the registration failed, e.g. because the name is already in use
+     */
+    public ObjectName registerMXBean(final String name) throws JMException {
+        final ObjectName objectName = new ObjectName(
+                "lohbihler.warp:type=WarpScheduledExecutorService,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        mxBeanName = objectName;
+        return objectName;
+    }
+
+    private void unregisterMXBean() {
+        final ObjectName objectName = mxBeanName;
+        if (objectName != null) {
+            mxBeanName = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (final JMException e) {
+                // Already unregistered.
             }
         }
     }
 
     @Override
     public void shutdown() {
+        unregisterMXBean();
         if (delegate == null) {
             executorService.shutdown();
             clock.removeListener(this);
@@ -89,14 +390,19 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
 
     @Override
     public List<Runnable> shutdownNow() {
+        unregisterMXBean();
         if (delegate == null) {
             executorService.shutdownNow();
             clock.removeListener(this);
             shutdown = true;
 
-            final List<Runnable> runnables = new ArrayList<>(tasks.size());
-            for (final ScheduleFutureImpl<?> task : tasks) {
-                runnables.add(task.getRunnable());
+            final List<Runnable> runnables = new ArrayList<>();
+            synchronized (tasks) {
+                mergeInbox();
+                for (final ScheduleFutureImpl<?> task : tasks.toList()) {
+                    if (!task.isCancelled())
+                        runnables.add(task.getRunnable());
+                }
             }
             return runnables;
         }
@@ -130,7 +436,9 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
     @Override
     public <T> Future<T> submit(final Callable<T> task) {
         if (delegate == null) {
-            return executorService.submit(task);
+            final FutureTask<T> future = new FutureTask<>(task);
+            dispatch(future);
+            return future;
         }
         return delegate.submit(task);
     }
@@ -138,7 +446,9 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
     @Override
     public <T> Future<T> submit(final Runnable task, final T result) {
         if (delegate == null) {
-            return executorService.submit(task, result);
+            final FutureTask<T> future = new FutureTask<>(task, result);
+            dispatch(future);
+            return future;
         }
         return delegate.submit(task, result);
     }
@@ -146,7 +456,9 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
     @Override
     public Future<?> submit(final Runnable task) {
         if (delegate == null) {
-            return executorService.submit(task);
+            final FutureTask<?> future = new FutureTask<>(task, null);
+            dispatch(future);
+            return future;
         }
         return delegate.submit(task);
     }
@@ -154,7 +466,7 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
     @Override
     public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) throws InterruptedException {
         if (delegate == null) {
-            return executorService.invokeAll(tasks);
+            return dispatchAll(tasks, false, 0);
         }
         return delegate.invokeAll(tasks);
     }
@@ -163,7 +475,7 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
     public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks, final long timeout,
             final TimeUnit unit) throws InterruptedException {
         if (delegate == null) {
-            return executorService.invokeAll(tasks, timeout, unit);
+            return dispatchAll(tasks, true, unit.toNanos(timeout));
         }
         return delegate.invokeAll(tasks, timeout, unit);
     }
@@ -172,7 +484,12 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
     public <T> T invokeAny(final Collection<? extends Callable<T>> tasks)
             throws InterruptedException, ExecutionException {
         if (delegate == null) {
-            return executorService.invokeAny(tasks);
+            try {
+                return dispatchAny(tasks, false, 0);
+            } catch (final TimeoutException e) {
+                // Not possible without a timeout.
+                throw new IllegalStateException(e);
+            }
         }
         return delegate.invokeAny(tasks);
     }
@@ -181,15 +498,84 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
     public <T> T invokeAny(final Collection<? extends Callable<T>> tasks, final long timeout, final TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException {
         if (delegate == null) {
-            return executorService.invokeAny(tasks, timeout, unit);
+            return dispatchAny(tasks, true, unit.toNanos(timeout));
         }
         return delegate.invokeAny(tasks, timeout, unit);
     }
 
+    /**
+     * Submits the tasks through dispatch, so that they are tracked as in flight, and waits for them to complete. As
+     * in AbstractExecutorService, the timeout is in real time, and tasks that are not done by then are cancelled.
+     */
+    private <T> List<Future<T>> dispatchAll(final Collection<? extends Callable<T>> tasks, final boolean timed,
+            final long nanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + nanos;
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        boolean done = false;
+        try {
+            for (final Callable<T> task : tasks)
+                futures.add(submit(task));
+            for (final Future<T> future : futures) {
+                if (future.isDone())
+                    continue;
+                try {
+                    if (timed)
+                        future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    else
+                        future.get();
+                } catch (final CancellationException | ExecutionException e) {
+                    // Reported by the future.
+                } catch (final TimeoutException e) {
+                    return futures;
+                }
+            }
+            done = true;
+            return futures;
+        } finally {
+            if (!done) {
+                for (final Future<T> future : futures)
+                    future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Submits the tasks through dispatch and returns the result of the first to complete successfully. The others
+     * are cancelled.
+     */
+    private <T> T dispatchAny(final Collection<? extends Callable<T>> tasks, final boolean timed, final long nanos)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (tasks.isEmpty())
+            throw new IllegalArgumentException("No tasks given");
+        final long deadline = System.nanoTime() + nanos;
+        final ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(this);
+        final List<Future<T>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (final Callable<T> task : tasks)
+                futures.add(completion.submit(task));
+            ExecutionException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                final Future<T> future = timed ? completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                        : completion.take();
+                if (future == null)
+                    throw new TimeoutException();
+                try {
+                    return future.get();
+                } catch (final ExecutionException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        } finally {
+            for (final Future<T> future : futures)
+                future.cancel(true);
+        }
+    }
+
     @Override
     public void execute(final Runnable command) {
         if (delegate == null) {
-            executorService.execute(command);
+            dispatch(command);
         } else {
             delegate.execute(command);
         }
@@ -200,7 +586,7 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
         if (delegate == null) {
             return addTask(new OneTime(command, delay, unit));
         }
-        return delegate.schedule(command, delay, unit);
+        return delegate.schedule(command, alignedDelay(delay, unit, slackNanos), TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -208,7 +594,7 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
         if (delegate == null) {
             return addTask(new OneTimeCallable<>(callable, delay, unit));
         }
-        return delegate.schedule(callable, delay, unit);
+        return delegate.schedule(callable, alignedDelay(delay, unit, slackNanos), TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -217,7 +603,8 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
         if (delegate == null) {
             return addTask(new FixedRate(command, initialDelay, period, unit));
         }
-        return delegate.scheduleAtFixedRate(command, initialDelay, period, unit);
+        return delegate.scheduleAtFixedRate(command, alignedDelay(initialDelay, unit, slackNanos), unit.toNanos(period),
+                TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -226,55 +613,560 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
         if (delegate == null) {
             return addTask(new FixedDelay(command, initialDelay, delay, unit));
         }
-        return delegate.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+        return delegate.scheduleWithFixedDelay(command, alignedDelay(initialDelay, unit, slackNanos),
+                unit.toNanos(delay), TimeUnit.NANOSECONDS);
     }
 
-    private <V> ScheduleFutureImpl<V> addTask(final ScheduleFutureImpl<V> task) {
+    /**
+     * Returns the executor that runs the tasks for the given key. Commands given to it run one at a time, in the order
+     * in which they were given, on this scheduler's executor. Keys are mapped onto a fixed number of stripes, so
+     * commands for different keys usually run in parallel, but may also run serially. Commands should not block for
+     * long, since that holds up the other commands of the stripe.
+     *
+     * While a stripe has commands to run it counts as one task in getInFlightCount.
+     *
+     * @param key
+     *            the key, e.g. the id of the entity that the commands act on
+     * @return the serial executor
+     */
+    public Executor getSerialExecutor(final Object key) {
+        final int h = key.hashCode();
+        return serialExecutors[(h ^ h >>> 16) & SERIAL_STRIPES - 1];
+    }
+
+    /**
+     * Schedules a command to run serially with the other tasks that have the same key, in order of deadline, using
+     * the key's serial executor. See getSerialExecutor. This removes the need for the tasks of an entity to lock each
+     * other out.
+     *
+     * If the clock is not a WarpClock, the future is done when the command has been handed to the serial executor.
+     */
+    public ScheduledFuture<?> schedule(final Object key, final Runnable command, final long delay,
+            final TimeUnit unit) {
+        final SerialExecutor serial = (SerialExecutor) getSerialExecutor(key);
+        if (delegate == null) {
+            final OneTime task = new OneTime(command, delay, unit);
+            task.key = key;
+            task.serial = serial;
+            return addTask(task);
+        }
+        return delegate.schedule(() -> serial.execute(command), alignedDelay(delay, unit, slackNanos),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * As scheduleAtFixedRate, with the runs executed serially with the other tasks that have the same key. See
+     * schedule(Object, Runnable, long, TimeUnit).
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(final Object key, final Runnable command, final long initialDelay,
+            final long period, final TimeUnit unit) {
+        final SerialExecutor serial = (SerialExecutor) getSerialExecutor(key);
+        if (delegate == null) {
+            final FixedRate task = new FixedRate(command, initialDelay, period, unit);
+            task.key = key;
+            task.serial = serial;
+            return addTask(task);
+        }
+        return delegate.scheduleAtFixedRate(() -> serial.execute(command),
+                alignedDelay(initialDelay, unit, slackNanos), unit.toNanos(period), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * As scheduleWithFixedDelay, with the runs executed serially with the other tasks that have the same key. See
+     * schedule(Object, Runnable, long, TimeUnit). If the clock is not a WarpClock, the delay is measured from when each
+     * run is handed to the serial executor.
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Object key, final Runnable command, final long initialDelay,
+            final long delay, final TimeUnit unit) {
+        final SerialExecutor serial = (SerialExecutor) getSerialExecutor(key);
+        if (delegate == null) {
+            final FixedDelay task = new FixedDelay(command, initialDelay, delay, unit);
+            task.key = key;
+            task.serial = serial;
+            return addTask(task);
+        }
+        return delegate.scheduleWithFixedDelay(() -> serial.execute(command),
+                alignedDelay(initialDelay, unit, slackNanos), unit.toNanos(delay), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Schedules a command to run at the times given by the cron expression, in the clock's time zone. See
+     * CronExpression. Like fixed rate tasks, the next fire time is computed from the previous one rather than from
+     * when the command finished, so if the clock jumps over several fire times, the command runs for each of them.
+     *
+     * @param command
+     * @param cron
+     *            the cron expression, e.g. "0 9 * * MON-FRI"
+     * @return the future of the task, which is only done when cancelled
+     */
+    public ScheduledFuture<?> scheduleCron(final Runnable command, final String cron) {
+        return scheduleCron(command, CronExpression.parse(cron));
+    }
+
+    public ScheduledFuture<?> scheduleCron(final Runnable command, final CronExpression cron) {
+        if (delegate == null) {
+            return addTask(new Cron(command, cron));
+        }
+        final DelegateCron task = new DelegateCron(command, cron);
+        task.scheduleNext();
+        return task;
+    }
+
+    /**
+     * @return the next fire time of the cron expression after the given time, in epoch nanos, or Long.MAX_VALUE if
+     *         there is none, or it is beyond the range of the clock.
+     */
+    long nextFire(final CronExpression cron, final long epochNanos) {
+        final ZonedDateTime next = cron.next(Instant.ofEpochSecond(0, epochNanos).atZone(clock.getZone()));
+        if (next == null)
+            return Long.MAX_VALUE;
+        final Instant instant = next.toInstant();
+        try {
+            return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+        } catch (final ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Schedules all of the given tasks in one operation, which is much cheaper than scheduling them one at a time when
+     * there are many of them, e.g. when bootstrapping a simulation. Repeating tasks run at a fixed rate, as with
+     * scheduleAtFixedRate.
+     *
+     * @param specs
+     *            the tasks to schedule
+     * @return the futures of the tasks, in the same order as the specs
+     */
+    public List<ScheduledFuture<?>> scheduleAll(final Collection<ScheduleSpec> specs) {
+        final List<ScheduledFuture<?>> futures = new ArrayList<>(specs.size());
+        if (delegate == null) {
+            final List<ScheduleFutureImpl<?>> batch = new ArrayList<>(specs.size());
+            for (final ScheduleSpec spec : specs) {
+                final ScheduleFutureImpl<?> task;
+                if (spec.isRepeating())
+                    task = new FixedRate(spec.getCommand(), spec.getInitialDelay(), spec.getPeriod(), spec.getUnit());
+                else
+                    task = new OneTime(spec.getCommand(), spec.getInitialDelay(), spec.getUnit());
+                if (spec.getSlackNanos() >= 0)
+                    task.setSlack(spec.getSlackNanos());
+                futures.add(task);
+                batch.add(task);
+            }
+            addTasks(batch);
+        } else {
+            for (final ScheduleSpec spec : specs) {
+                final long slack = spec.getSlackNanos() >= 0 ? spec.getSlackNanos() : slackNanos;
+                final long initialDelay = alignedDelay(spec.getInitialDelay(), spec.getUnit(), slack);
+                if (spec.isRepeating())
+                    futures.add(delegate.scheduleAtFixedRate(spec.getCommand(), initialDelay,
+                            spec.getUnit().toNanos(spec.getPeriod()), TimeUnit.NANOSECONDS));
+                else
+                    futures.add(delegate.schedule(spec.getCommand(), initialDelay, TimeUnit.NANOSECONDS));
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Registers a command under an id, so that the tasks that run it can be included in checkpoints without the command
+     * being Serializable. Restoring a checkpoint runs the same command object, so any state that it has is not rolled
+     * back. The id must be unique within this scheduler, and a command registered under the same id must be used by
+     * any scheduler in which the checkpoint is restored.
+     */
+    public void registerCommand(final String id, final Runnable command) {
+        register(id, command);
+    }
+
+    public void registerCommand(final String id, final Callable<?> command) {
+        register(id, command);
+    }
+
+    private void register(final String id, final Object command) {
+        Objects.requireNonNull(id, "id");
+        Objects.requireNonNull(command, "command");
+        synchronized (commandsById) {
+            if (commandsById.containsKey(id))
+                throw new IllegalArgumentException("A command is already registered with id " + id);
+            commandsById.put(id, command);
+            idsByCommand.put(command, id);
+        }
+    }
+
+    /**
+     * Creates a checkpoint of the clock's time and of the pending tasks whose commands are registered or Serializable.
+     * See WarpCheckpoint. No tasks can be running, so in non-inline mode the clock should be quiescent, e.g. after
+     * awaitQuiescence. Only the scheduler's own state is captured: timeouts set directly on the clock, and threads
+     * that are sleeping or waiting on it, are not.
+     *
+     * @return the checkpoint
+     * @throws IllegalStateException
+     *             if tasks are running, or the clock is not a WarpClock
+     */
+    public WarpCheckpoint checkpoint() {
+        checkCheckpointable();
+        final long now = clock.getEpochNanos();
+        final List<ScheduleFutureImpl<?>> pending;
         synchronized (tasks) {
-            if (task.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+            mergeInbox();
+            pending = tasks.toList();
+        }
+        // In the order in which they would run, so that restored tasks that have the same deadline keep their order.
+        pending.sort(null);
+
+        final List<WarpCheckpoint.TaskState> states = new ArrayList<>(pending.size());
+        int skipped = 0;
+        for (final ScheduleFutureImpl<?> task : pending) {
+            if (task.isCancelled())
+                continue;
+            final WarpCheckpoint.TaskState state = toState(task);
+            if (state == null)
+                skipped++;
+            else
+                states.add(state);
+        }
+        return new WarpCheckpoint(now, states, skipped);
+    }
+
+    /**
+     * Restores a checkpoint: cancels the pending tasks, sets the clock back (or forward) to the checkpoint's time, and
+     * schedules the tasks of the checkpoint. The checkpoint can be restored again later, and can come from another
+     * scheduler as long as the same command ids are registered in this one.
+     *
+     * @param checkpoint
+     * @return the futures of the restored tasks, in the order of WarpCheckpoint.getCommandIds
+     * @throws IllegalStateException
+     *             if tasks are running, the clock is being driven, or the clock is not a WarpClock
+     * @throws IllegalArgumentException
+     *             if a command id is not registered
+     */
+    public List<ScheduledFuture<?>> restore(final WarpCheckpoint checkpoint) {
+        checkCheckpointable();
+        // Create the tasks first, so that a checkpoint that cannot be restored leaves the scheduler as it was.
+        final List<ScheduleFutureImpl<?>> batch = new ArrayList<>(checkpoint.getTaskCount());
+        for (final WarpCheckpoint.TaskState state : checkpoint.getTasks())
+            batch.add(fromState(state));
+
+        final List<ScheduleFutureImpl<?>> pending;
+        synchronized (tasks) {
+            mergeInbox();
+            pending = tasks.toList();
+        }
+        for (final ScheduleFutureImpl<?> task : pending)
+            task.cancel(false);
+
+        clock.rewindTo(checkpoint.getEpochNanos());
+        addTasks(batch);
+        return new ArrayList<>(batch);
+    }
+
+    private void checkCheckpointable() {
+        if (delegate != null)
+            throw new IllegalStateException("Checkpoints require a WarpClock");
+        if (inFlight.get() > 0)
+            throw new IllegalStateException("Tasks are running");
+    }
+
+    /**
+     * @return the state of the task, or null if its command is neither registered nor Serializable.
+     */
+    private WarpCheckpoint.TaskState toState(final ScheduleFutureImpl<?> task) {
+        final Object command = task.getCommand();
+        final String id;
+        synchronized (commandsById) {
+            id = idsByCommand.get(command);
+        }
+        byte[] serialized = null;
+        if (id == null) {
+            if (!(command instanceof Serializable))
+                return null;
+            serialized = serialize(command);
+        }
+
+        final WarpCheckpoint.Kind kind;
+        long period = 0;
+        String cron = null;
+        if (task instanceof FixedRate) {
+            final FixedRate fixedRate = (FixedRate) task;
+            kind = WarpCheckpoint.Kind.FIXED_RATE;
+            period = fixedRate.unit.toNanos(fixedRate.period);
+        } else if (task instanceof FixedDelay) {
+            final FixedDelay fixedDelay = (FixedDelay) task;
+            kind = WarpCheckpoint.Kind.FIXED_DELAY;
+            period = fixedDelay.unit.toNanos(fixedDelay.delay);
+        } else if (task instanceof Cron) {
+            kind = WarpCheckpoint.Kind.CRON;
+            cron = ((Cron) task).cron.toString();
+        } else if (task instanceof OneTimeCallable) {
+            kind = WarpCheckpoint.Kind.CALLABLE;
+        } else {
+            kind = WarpCheckpoint.Kind.ONE_TIME;
+        }
+        return new WarpCheckpoint.TaskState(kind, id, serialized, task.key, task.nominal, task.slack, period, cron);
+    }
+
+    private ScheduleFutureImpl<?> fromState(final WarpCheckpoint.TaskState state) {
+        final Object command;
+        if (state.commandId == null) {
+            command = deserialize(state.serializedCommand);
+        } else {
+            synchronized (commandsById) {
+                command = commandsById.get(state.commandId);
+            }
+            if (command == null)
+                throw new IllegalArgumentException("No command is registered with id " + state.commandId);
+        }
+
+        final ScheduleFutureImpl<?> task;
+        switch (state.kind) {
+        case CALLABLE:
+            task = new OneTimeCallable<>((Callable<?>) command, 0, TimeUnit.NANOSECONDS);
+            break;
+        case FIXED_RATE:
+            task = new FixedRate((Runnable) command, 0, state.period, TimeUnit.NANOSECONDS);
+            break;
+        case FIXED_DELAY:
+            task = new FixedDelay((Runnable) command, 0, state.period, TimeUnit.NANOSECONDS);
+            break;
+        case CRON:
+            task = new Cron((Runnable) command, CronExpression.parse(state.cron));
+            break;
+        default:
+            task = new OneTime((Runnable) command, 0, TimeUnit.NANOSECONDS);
+        }
+        if (state.key != null) {
+            task.key = state.key;
+            task.serial = (SerialExecutor) getSerialExecutor(state.key);
+        }
+        task.setSlack(state.slack);
+        task.setNominal(state.nominal);
+        return task;
+    }
+
+    private static byte[] serialize(final Object command) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(command);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Failed to serialize command " + command, e);
+        }
+        return out.toByteArray();
+    }
+
+    private static Object deserialize(final byte[] serialized) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        } catch (final IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to deserialize command", e);
+        }
+    }
+
+    /**
+     * Adds a batch of new tasks to the queue while holding its lock only once, building the heap in O(n) where that is
+     * cheaper.
+     */
+    private void addTasks(final List<ScheduleFutureImpl<?>> batch) {
+        final long now = clock.getEpochNanos();
+        final List<ScheduleFutureImpl<?>> queued = new ArrayList<>(batch.size());
+        long earliest = Long.MAX_VALUE;
+        metrics.taskScheduled(batch.size());
+        for (final ScheduleFutureImpl<?> task : batch) {
+            if (!inline && task.deadline <= now) {
                 // Run now
-                executorService.submit(task.getRunnable());
+                task.dueNanoTime = System.nanoTime();
+                task.execute();
             } else {
-                int index = Collections.binarySearch(tasks, task);
-                if (index < 0)
-                    index = -index - 1;
-                tasks.add(index, task);
+                task.sequence = sequencer.getAndIncrement();
+                queued.add(task);
+                earliest = Math.min(earliest, task.deadline);
             }
+        }
+        if (queued.isEmpty())
+            return;
+
+        synchronized (tasks) {
+            mergeInbox();
+            tasks.addAll(queued);
+        }
+
+        // As in addTask.
+        if (earliest <= clock.getEpochNanos()) {
+            if (!drainLock.isHeldByCurrentThread())
+                clockUpdate(clock.getDateTime());
+        } else {
+            clock.deadlineAdded(earliest);
+        }
+    }
+
+    private <V> ScheduleFutureImpl<V> addTask(final ScheduleFutureImpl<V> task) {
+        metrics.taskScheduled(1);
+        return enqueue(task);
+    }
+
+    /**
+     * Adds a new task, or the next run of a repeating task, to the queue.
+     */
+    private <V> ScheduleFutureImpl<V> enqueue(final ScheduleFutureImpl<V> task) {
+        // A repeating task may have been cancelled while it was running.
+        if (task.isCancelled())
+            return task;
+        if (!inline && task.deadline <= clock.getEpochNanos()) {
+            // Run now
+            task.dueNanoTime = System.nanoTime();
+            task.execute();
             return task;
         }
+
+        task.sequence = sequencer.getAndIncrement();
+        ScheduleFutureImpl<?> head;
+        do {
+            head = inbox.get();
+            task.nextInInbox = head;
+        } while (!inbox.compareAndSet(head, task));
+
+        if (task.deadline <= clock.getEpochNanos()) {
+            // The task is due, either because this is inline mode, in which due tasks are queued so that they run in
+            // order, or because the clock moved on while it was being added, and the update may have already merged
+            // the inbox. If tasks are already being run by this thread the task will be picked up there. Otherwise,
+            // run due tasks now.
+            if (!drainLock.isHeldByCurrentThread())
+                clockUpdate(clock.getDateTime());
+        } else {
+            clock.deadlineAdded(task.deadline);
+        }
+        return task;
+    }
+
+    /**
+     * Converts a delay into an absolute deadline in epoch nanos, saturating at Long.MAX_VALUE.
+     */
+    long deadline(final long delay, final TimeUnit unit) {
+        final long now = clock.getEpochNanos();
+        final long deadline = now + unit.toNanos(delay);
+        if (delay > 0 && deadline < now)
+            return Long.MAX_VALUE;
+        return deadline;
     }
 
-    abstract class ScheduleFutureImpl<V> implements ScheduledFuture<V> {
+    abstract class ScheduleFutureImpl<V> implements WarpScheduledFuture<V>, TaskQueue.Element {
+        /**
+         * The time at which the task was asked to run, in epoch nanos.
+         */
+        long nominal;
+        /**
+         * The time at which the task is to run, in epoch nanos: the nominal time rounded up to a multiple of the slack.
+         * Only changes, for repeating tasks, while the task is not in the queue.
+         */
+        long deadline;
+        // The amount of time in nanos by which the task may run late. See setSlack.
+        long slack = slackNanos;
+        long sequence;
+        // Guarded by the tasks lock.
+        private int queueIndex = -1;
+        // The next task in the inbox.
+        ScheduleFutureImpl<?> nextInInbox;
+        // The key and executor for tasks that have a key, or null.
+        Object key;
+        SerialExecutor serial;
+        // The real time at which the task became due, from System.nanoTime.
+        long dueNanoTime;
+
         private volatile boolean success;
         private volatile V result;
         private volatile Exception exception;
         private volatile boolean cancelled;
         private volatile boolean done;
+        // Threads that are waiting for the result.
+        private final List<Waiter> waiters = new ArrayList<>();
+        // Created on demand, so that futures that are only waited on do not pay for it. Guarded by this.
+        private CompletableFuture<V> stage;
+
+        void setNominal(final long nominal) {
+            this.nominal = nominal;
+            deadline = align(nominal, slack);
+        }
+
+        void setSlack(final long slack) {
+            this.slack = slack;
+            deadline = align(nominal, slack);
+        }
 
         void execute() {
-            executorService.submit(() -> executeImpl());
+            if (serial == null)
+                dispatch(() -> runTask());
+            else
+                serial.execute(() -> runTask());
+        }
+
+        /**
+         * Runs the task, recording its metrics.
+         */
+        void runTask() {
+            final long warpedLag = clock.getEpochNanos() - nominal;
+            final long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                executeImpl();
+                failed = false;
+            } finally {
+                metrics.taskExecuted(warpedLag, start - dueNanoTime, System.nanoTime() - start);
+                if (failed)
+                    metrics.taskFailed();
+            }
         }
 
         abstract void executeImpl();
 
         abstract Runnable getRunnable();
 
+        /**
+         * @return the command that was given to the scheduler
+         */
+        abstract Object getCommand();
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(deadline - clock.getEpochNanos(), TimeUnit.NANOSECONDS);
+        }
+
         @Override
         public int compareTo(final Delayed that) {
-            return Long.compare(getDelay(TimeUnit.MILLISECONDS), that.getDelay(TimeUnit.MILLISECONDS));
+            if (that instanceof ScheduleFutureImpl) {
+                final ScheduleFutureImpl<?> task = (ScheduleFutureImpl<?>) that;
+                final int result = Long.compare(deadline, task.deadline);
+                if (result != 0)
+                    return result;
+                return Long.compare(sequence, task.sequence);
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), that.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public int getQueueIndex() {
+            return queueIndex;
+        }
+
+        @Override
+        public void setQueueIndex(final int index) {
+            queueIndex = index;
         }
 
         @Override
         public boolean cancel(final boolean mayInterruptIfRunning) {
             synchronized (this) {
-                if (!done) {
-                    cancelled = true;
-                    notifyAll();
-                    done = true;
-                    return true;
-                }
-                return false;
+                if (done)
+                    return false;
+                cancelled = true;
+                wakeWaiters();
+                done = true;
             }
+            metrics.taskCancelled();
+            completeStage();
+            // Remove the task right away so that tasks that are scheduled and then cancelled, e.g. request timeouts,
+            // do not accumulate in the queue. Tasks that are still in the inbox are dropped when it is merged.
+            synchronized (tasks) {
+                tasks.remove(this);
+            }
+            return true;
         }
 
         @Override
@@ -305,6 +1197,8 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
             final long expiry = clock.millis() + millis;
 
             while (true) {
+                final Waiter waiter;
+                final TimeoutFuture<?> timeout;
                 synchronized (this) {
                     final long remaining = expiry - clock.millis();
                     if (success)
@@ -314,17 +1208,74 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
                     if (isCancelled())
                         throw new CancellationException();
 
-                    if (timed) {
-                        if (remaining <= 0)
-                            throw new TimeoutException();
-                        WarpUtils.wait(clock, this, remaining, TimeUnit.MILLISECONDS);
-                    } else {
-                        wait();
+                    if (timed && remaining <= 0)
+                        throw new TimeoutException();
+
+                    waiter = new Waiter(clock.newBlocked());
+                    timeout = !timed ? null : clock.setTimeout(waiter::wake, remaining, TimeUnit.MILLISECONDS);
+                    waiters.add(waiter);
+                    if (waiter.blocked != null)
+                        waiter.blocked.block();
+                }
+
+                // Park outside of the monitor rather than wait on it, so that virtual threads can unmount while
+                // waiting. The woken flag guards against the unpark happening before the park, and against spurious
+                // wakeups.
+                try {
+                    while (!waiter.woken) {
+                        LockSupport.park(this);
+                        if (Thread.interrupted())
+                            throw new InterruptedException();
+                    }
+                } finally {
+                    if (timeout != null)
+                        timeout.cancel();
+                    synchronized (this) {
+                        waiters.remove(waiter);
                     }
+                    WarpClock.unblock(waiter.blocked);
                 }
             }
         }
 
+        @Override
+        public CompletionStage<V> toCompletionStage() {
+            synchronized (this) {
+                if (stage == null)
+                    stage = new CompletableFuture<>();
+            }
+            // In case this is already done.
+            completeStage();
+            return stage;
+        }
+
+        /**
+         * Completes the stage, if there is one, according to the outcome of this future. Called outside of the monitor
+         * so that dependent actions do not run while holding it.
+         */
+        private void completeStage() {
+            final CompletableFuture<V> s;
+            synchronized (this) {
+                if (stage == null || !done)
+                    return;
+                s = stage;
+            }
+            if (success)
+                s.complete(result);
+            else if (exception != null)
+                s.completeExceptionally(exception);
+            else
+                s.completeExceptionally(new CancellationException());
+        }
+
+        /**
+         * Wakes the threads that are waiting for the result. Must be called while synchronized on this.
+         */
+        private void wakeWaiters() {
+            for (final Waiter waiter : waiters)
+                waiter.wake();
+        }
+
         @Override
         public boolean isDone() {
             return done;
@@ -335,30 +1286,105 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
                 if (!done) {
                     success = true;
                     this.result = result;
-                    notifyAll();
+                    wakeWaiters();
                     done = true;
                 }
             }
+            completeStage();
         }
 
         protected void exception(final Exception exception) {
+            metrics.taskFailed();
             synchronized (this) {
                 if (!done) {
                     this.exception = exception;
-                    notifyAll();
+                    wakeWaiters();
                     done = true;
                 }
             }
+            completeStage();
+        }
+    }
+
+    /**
+     * A thread that is parked waiting for the result of a future.
+     */
+    static class Waiter {
+        private final Thread thread = Thread.currentThread();
+        // The work of the thread that is blocked, or null if the thread is not doing tracked work.
+        final WarpClock.Blocked blocked;
+        volatile boolean woken;
+
+        Waiter(final WarpClock.Blocked blocked) {
+            this.blocked = blocked;
+        }
+
+        void wake() {
+            if (blocked != null)
+                blocked.wake();
+            woken = true;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Runs the commands given to it one at a time, in the order given, by handing a drain of its queue to the executor
+     * whenever the queue becomes non-empty.
+     */
+    class SerialExecutor implements Executor {
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+        // Whether a drain has been handed off and not yet finished. Guarded by queue.
+        private boolean active;
+
+        @Override
+        public void execute(final Runnable command) {
+            synchronized (queue) {
+                queue.add(command);
+                if (active)
+                    return;
+                active = true;
+            }
+
+            try {
+                if (delegate == null)
+                    dispatch(this::drain);
+                else
+                    delegate.execute(this::drain);
+            } catch (final RuntimeException e) {
+                synchronized (queue) {
+                    queue.clear();
+                    active = false;
+                }
+                throw e;
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                final Runnable command;
+                synchronized (queue) {
+                    command = queue.poll();
+                    if (command == null) {
+                        active = false;
+                        return;
+                    }
+                }
+                try {
+                    command.run();
+                } catch (final RuntimeException e) {
+                    // As with tasks that are submitted individually, the exception is dropped. Carry on with the rest
+                    // of the queue.
+                }
+            }
         }
     }
 
     class OneTime extends ScheduleFutureImpl<Void> {
         private final Runnable command;
-        private final long runtime;
 
         public OneTime(final Runnable command, final long delay, final TimeUnit unit) {
             this.command = command;
-            runtime = clock.millis() + unit.toMillis(delay);
+            setNominal(deadline(delay, unit));
         }
 
         @Override
@@ -367,34 +1393,44 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
         }
 
         @Override
-        void executeImpl() {
-            command.run();
-            success(null);
+        Object getCommand() {
+            return command;
         }
 
         @Override
-        public long getDelay(final TimeUnit unit) {
-            final long millis = runtime - clock.millis();
-            return unit.convert(millis, TimeUnit.MILLISECONDS);
+        void executeImpl() {
+            try {
+                command.run();
+            } catch (final RuntimeException e) {
+                exception(e);
+                return;
+            }
+            success(null);
         }
     }
 
     abstract class Repeating extends ScheduleFutureImpl<Void> {
+        private final Runnable original;
         private final Runnable command;
         protected final TimeUnit unit;
 
-        protected long nextRuntime;
-
         public Repeating(final Runnable command, final long initialDelay, final TimeUnit unit) {
+            original = command;
             this.command = () -> {
-                command.run();
+                try {
+                    command.run();
+                } catch (final RuntimeException e) {
+                    // As with ScheduledThreadPoolExecutor, a run that fails ends the task exceptionally.
+                    exception(e);
+                    return;
+                }
                 if (!isCancelled()) {
                     // Reschedule to run at the period from the last run.
                     updateNextRuntime();
-                    addTask(this);
+                    enqueue(this);
                 }
             };
-            nextRuntime = clock.millis() + unit.toMillis(initialDelay);
+            setNominal(deadline(initialDelay, unit));
             this.unit = unit;
         }
 
@@ -404,19 +1440,13 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
         }
 
         @Override
-        void executeImpl() {
-            command.run();
-        }
-
-        @Override
-        public long getDelay(final TimeUnit unit) {
-            final long millis = nextRuntime - clock.millis();
-            return unit.convert(millis, TimeUnit.MILLISECONDS);
+        Object getCommand() {
+            return original;
         }
 
         @Override
-        public boolean isDone() {
-            return isCancelled();
+        void executeImpl() {
+            command.run();
         }
 
         abstract void updateNextRuntime();
@@ -432,7 +1462,7 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
 
         @Override
         void updateNextRuntime() {
-            nextRuntime += unit.toMillis(period);
+            setNominal(nominal + unit.toNanos(period));
         }
     }
 
@@ -446,17 +1476,120 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
 
         @Override
         void updateNextRuntime() {
-            nextRuntime = clock.millis() + unit.toMillis(delay);
+            setNominal(deadline(delay, unit));
+        }
+    }
+
+    class Cron extends Repeating {
+        private final CronExpression cron;
+
+        public Cron(final Runnable command, final CronExpression cron) {
+            super(command, 0, TimeUnit.NANOSECONDS);
+            this.cron = cron;
+            setNominal(nextFire(cron, nominal));
+        }
+
+        @Override
+        void updateNextRuntime() {
+            setNominal(nextFire(cron, nominal));
+        }
+    }
+
+    /**
+     * A cron task in delegate mode, which schedules each run with the delegate as a one time task.
+     */
+    class DelegateCron implements ScheduledFuture<Void>, Runnable {
+        private final Runnable command;
+        private final CronExpression cron;
+        private volatile ZonedDateTime next;
+        private ScheduledFuture<?> future;
+        private boolean cancelled;
+
+        DelegateCron(final Runnable command, final CronExpression cron) {
+            this.command = command;
+            this.cron = cron;
+            next = ZonedDateTime.now(delegateClock);
+        }
+
+        void scheduleNext() {
+            next = cron.next(next);
+            if (next == null)
+                return;
+            final long delay = Math.max(0, Duration.between(delegateClock.instant(), next.toInstant()).toNanos());
+            synchronized (this) {
+                if (!cancelled)
+                    future = delegate.schedule(this, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            command.run();
+            scheduleNext();
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            final ZonedDateTime n = next;
+            if (n == null)
+                return Long.MAX_VALUE;
+            return unit.convert(Duration.between(delegateClock.instant(), n.toInstant()).toNanos(),
+                    TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed that) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), that.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public synchronized boolean cancel(final boolean mayInterruptIfRunning) {
+            if (cancelled)
+                return false;
+            cancelled = true;
+            if (future != null)
+                future.cancel(mayInterruptIfRunning);
+            notifyAll();
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return isCancelled();
+        }
+
+        @Override
+        public synchronized Void get() throws InterruptedException {
+            while (!cancelled)
+                wait();
+            throw new CancellationException();
+        }
+
+        @Override
+        public synchronized Void get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, TimeoutException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!cancelled) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            throw new CancellationException();
         }
     }
 
     class OneTimeCallable<V> extends ScheduleFutureImpl<V> {
         private final Callable<V> command;
-        private final long runtime;
 
         public OneTimeCallable(final Callable<V> command, final long delay, final TimeUnit unit) {
             this.command = command;
-            runtime = clock.millis() + unit.toMillis(delay);
+            setNominal(deadline(delay, unit));
         }
 
         @Override
@@ -470,6 +1603,11 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
             };
         }
 
+        @Override
+        Object getCommand() {
+            return command;
+        }
+
         @Override
         void executeImpl() {
             try {
@@ -478,11 +1616,5 @@ public class WarpScheduledExecutorService implements ScheduledExecutorService, C
                 exception(e);
             }
         }
-
-        @Override
-        public long getDelay(final TimeUnit unit) {
-            final long millis = runtime - clock.millis();
-            return unit.convert(millis, TimeUnit.MILLISECONDS);
-        }
     }
 }
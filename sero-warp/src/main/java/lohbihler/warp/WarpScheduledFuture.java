@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The futures returned by a WarpScheduledExecutorService that uses a WarpClock implement this interface.
+ *
+ * @author Matthew Lohbihler
+ */
+public interface WarpScheduledFuture<V> extends ScheduledFuture<V> {
+    /**
+     * Returns a completion stage that completes when this future does: normally with the result of the task, or
+     * exceptionally with the exception thrown by the task or a CancellationException. Dependent actions run on the
+     * thread that completes the future, so no thread needs to block waiting for the result. Repeating tasks only
+     * complete when they are cancelled.
+     *
+     * Blocking methods on the stage wait in real time. Use get(long, TimeUnit) on this future to wait in clock time.
+     * Completing the stage does not affect this future.
+     *
+     * @return the completion stage
+     */
+    CompletionStage<V> toCompletionStage();
+}
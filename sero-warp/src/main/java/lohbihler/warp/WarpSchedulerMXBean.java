@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+/**
+ * The JMX view of the metrics of a WarpScheduledExecutorService. See
+ * WarpScheduledExecutorService.registerMXBean. Times are in nanos.
+ *
+ * @author Matthew Lohbihler
+ */
+public interface WarpSchedulerMXBean {
+    int getPendingTasks();
+
+    int getInFlightTasks();
+
+    long getScheduledTasks();
+
+    long getExecutedTasks();
+
+    long getFailedTasks();
+
+    long getCancelledTasks();
+
+    long getWarpedLagP99();
+
+    long getWarpedLagMax();
+
+    long getRealLagP99();
+
+    long getRealLagMax();
+
+    double getExecutionTimeMean();
+
+    long getExecutionTimeP99();
+
+    long getExecutionTimeMax();
+
+    void resetHistograms();
+}
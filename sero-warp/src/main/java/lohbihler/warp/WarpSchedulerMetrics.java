@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of a WarpScheduledExecutorService that uses a WarpClock. All times are in nanos. The lag of a task is
+ * how late it started relative to when it was scheduled to run, measured both in clock time - which includes any
+ * slack, and the granularity of clock updates - and in real time from when the clock reached the task's deadline,
+ * which shows how long tasks wait for a thread. The execution time is the real time that tasks took to run.
+ *
+ * Thread-safe. Recording does not allocate.
+ *
+ * @author Matthew Lohbihler
+ */
+public class WarpSchedulerMetrics implements WarpSchedulerMXBean {
+    private final WarpScheduledExecutorService scheduler;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LatencyHistogram warpedLag = new LatencyHistogram();
+    private final LatencyHistogram realLag = new LatencyHistogram();
+    private final LatencyHistogram executionTime = new LatencyHistogram();
+
+    WarpSchedulerMetrics(final WarpScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    void taskScheduled(final int count) {
+        scheduled.add(count);
+    }
+
+    void taskCancelled() {
+        cancelled.increment();
+    }
+
+    void taskExecuted(final long warpedLagNanos, final long realLagNanos, final long executionNanos) {
+        executed.increment();
+        warpedLag.record(warpedLagNanos);
+        realLag.record(realLagNanos);
+        executionTime.record(executionNanos);
+    }
+
+    void taskFailed() {
+        failed.increment();
+    }
+
+    @Override
+    public int getPendingTasks() {
+        return scheduler.getQueueSize();
+    }
+
+    @Override
+    public int getInFlightTasks() {
+        return scheduler.getInFlightCount();
+    }
+
+    @Override
+    public long getScheduledTasks() {
+        return scheduled.sum();
+    }
+
+    /**
+     * @return the number of runs of tasks. Each run of a repeating task counts.
+     */
+    @Override
+    public long getExecutedTasks() {
+        return executed.sum();
+    }
+
+    /**
+     * @return the number of runs of tasks that threw an exception.
+     */
+    @Override
+    public long getFailedTasks() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getCancelledTasks() {
+        return cancelled.sum();
+    }
+
+    public LatencyHistogram getWarpedLag() {
+        return warpedLag;
+    }
+
+    public LatencyHistogram getRealLag() {
+        return realLag;
+    }
+
+    public LatencyHistogram getExecutionTime() {
+        return executionTime;
+    }
+
+    @Override
+    public long getWarpedLagP99() {
+        return warpedLag.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getWarpedLagMax() {
+        return warpedLag.getMax();
+    }
+
+    @Override
+    public long getRealLagP99() {
+        return realLag.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getRealLagMax() {
+        return realLag.getMax();
+    }
+
+    @Override
+    public double getExecutionTimeMean() {
+        return executionTime.getMean();
+    }
+
+    @Override
+    public long getExecutionTimeP99() {
+        return executionTime.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getExecutionTimeMax() {
+        return executionTime.getMax();
+    }
+
+    @Override
+    public void resetHistograms() {
+        warpedLag.reset();
+        realLag.reset();
+        executionTime.reset();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * The metrics at a point in time.
+     */
+    public static class Snapshot {
+        private final int pendingTasks;
+        private final int inFlightTasks;
+        private final long scheduledTasks;
+        private final long executedTasks;
+        private final long failedTasks;
+        private final long cancelledTasks;
+        private final LatencyHistogram.Snapshot warpedLag;
+        private final LatencyHistogram.Snapshot realLag;
+        private final LatencyHistogram.Snapshot executionTime;
+
+        Snapshot(final WarpSchedulerMetrics metrics) {
+            pendingTasks = metrics.getPendingTasks();
+            inFlightTasks = metrics.getInFlightTasks();
+            scheduledTasks = metrics.getScheduledTasks();
+            executedTasks = metrics.getExecutedTasks();
+            failedTasks = metrics.getFailedTasks();
+            cancelledTasks = metrics.getCancelledTasks();
+            warpedLag = metrics.warpedLag.snapshot();
+            realLag = metrics.realLag.snapshot();
+            executionTime = metrics.executionTime.snapshot();
+        }
+
+        public int getPendingTasks() {
+            return pendingTasks;
+        }
+
+        public int getInFlightTasks() {
+            return inFlightTasks;
+        }
+
+        public long getScheduledTasks() {
+            return scheduledTasks;
+        }
+
+        public long getExecutedTasks() {
+            return executedTasks;
+        }
+
+        public long getFailedTasks() {
+            return failedTasks;
+        }
+
+        public long getCancelledTasks() {
+            return cancelledTasks;
+        }
+
+        public LatencyHistogram.Snapshot getWarpedLag() {
+            return warpedLag;
+        }
+
+        public LatencyHistogram.Snapshot getRealLag() {
+            return realLag;
+        }
+
+        public LatencyHistogram.Snapshot getExecutionTime() {
+            return executionTime;
+        }
+
+        @Override
+        public String toString() {
+            return "pending=" + pendingTasks + ", inFlight=" + inFlightTasks + ", scheduled=" + scheduledTasks
+                    + ", executed=" + executedTasks + ", failed=" + failedTasks + ", cancelled=" + cancelledTasks
+                    + ", warpedLag=[" + warpedLag + "], realLag=[" + realLag + "], executionTime=[" + executionTime
+                    + "]";
+        }
+    }
+}
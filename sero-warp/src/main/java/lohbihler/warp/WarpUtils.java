@@ -9,18 +9,30 @@ package lohbihler.warp;
 
 import java.time.Clock;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 public class WarpUtils {
+    /**
+     * Waits on the given object's monitor for the given amount of clock time. The caller must hold the monitor, as
+     * with Object.wait, so this necessarily uses the monitor rather than parking. Note that a virtual thread that waits
+     * on a monitor may pin its carrier thread on older JDKs.
+     */
     public static void wait(final Clock clock, final Object o, final long timeout, final TimeUnit timeUnit)
             throws InterruptedException {
         if (clock instanceof WarpClock) {
             final WarpClock warpClock = (WarpClock) clock;
+            final WarpClock.Blocked blocked = warpClock.newBlocked();
 
             final TimeoutFuture<?> future = warpClock.setTimeout(() -> {
+                if (blocked != null)
+                    blocked.wake();
                 synchronized (o) {
                     o.notify();
                 }
             }, timeout, timeUnit);
+            if (blocked != null)
+                blocked.block();
 
             try {
                 synchronized (o) {
@@ -28,6 +40,7 @@ public class WarpUtils {
                 }
             } finally {
                 future.cancel();
+                WarpClock.unblock(blocked);
             }
         } else {
             o.wait(timeUnit.toMillis(timeout));
@@ -38,20 +51,30 @@ public class WarpUtils {
             throws InterruptedException {
         if (clock instanceof WarpClock) {
             final WarpClock warpClock = (WarpClock) clock;
-            final Object o = new Object();
+            final Thread thread = Thread.currentThread();
+            final AtomicBoolean elapsed = new AtomicBoolean();
+            final WarpClock.Blocked blocked = warpClock.newBlocked();
 
+            // Park rather than wait on a monitor so that virtual threads can unmount while sleeping. The elapsed flag
+            // guards against the unpark happening before the park, and against spurious wakeups.
             final TimeoutFuture<?> future = warpClock.setTimeout(() -> {
-                synchronized (o) {
-                    o.notify();
-                }
+                if (blocked != null)
+                    blocked.wake();
+                elapsed.set(true);
+                LockSupport.unpark(thread);
             }, timeout, timeUnit);
+            if (blocked != null)
+                blocked.block();
 
             try {
-                synchronized (o) {
-                    o.wait();
+                while (!elapsed.get()) {
+                    LockSupport.park(future);
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
                 }
             } finally {
                 future.cancel();
+                WarpClock.unblock(blocked);
             }
         } else {
             Thread.sleep(timeUnit.toMillis(timeout));
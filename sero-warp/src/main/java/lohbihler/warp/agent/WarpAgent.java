@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp.agent;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpClockDriver;
+
+/**
+ * An instrumentation agent that runs code that does not know about WarpClock in warped time, by rewriting its calls
+ * to System.currentTimeMillis, System.nanoTime, Thread.sleep and Object.wait with a timeout to use the clock set in
+ * WarpTime. Method references to them, e.g. System::nanoTime, are rewritten too, but calls through reflection or
+ * through method handles that are looked up at run time are not. See WarpTransformer for which classes are rewritten.
+ * Code that gets the time from java.time or java.util.Date is not affected, since the JDK itself is not rewritten.
+ *
+ * The agent is given as, e.g.:
+ *
+ * -javaagent:sero-warp.jar=packages=com.example,org.example;rate=3600
+ *
+ * ASM 9.x, as well as the dependencies of this library, must be on the class path. ASM is not a dependency of the
+ * library, since only the agent needs it, so it must be added to the application. The options are separated by
+ * semicolons:
+ *
+ * packages: a comma-separated list of the packages to rewrite. All packages are rewritten by default.
+ *
+ * rate: if given, a WarpClock starting at the current time is set in WarpTime and driven by a WarpClockDriver at this
+ * multiple of real time. Otherwise the application is in real time until it sets a clock with WarpTime.setClock, e.g.
+ * so that a test harness can advance the clock itself.
+ *
+ * @author Matthew Lohbihler
+ */
+public class WarpAgent {
+    static final Logger LOG = LoggerFactory.getLogger(WarpAgent.class);
+
+    public static void premain(final String args, final Instrumentation inst) {
+        install(args, inst, false);
+    }
+
+    /**
+     * Called when the agent is loaded into a running JVM. Classes that are already loaded are rewritten too if the JVM
+     * supports retransformation.
+     */
+    public static void agentmain(final String args, final Instrumentation inst) {
+        install(args, inst, true);
+    }
+
+    private static void install(final String args, final Instrumentation inst, final boolean retransform) {
+        String[] packages = {};
+        double rate = 0;
+        if (args != null) {
+            for (final String option : args.split(";")) {
+                final String trimmed = option.trim();
+                if (trimmed.isEmpty())
+                    continue;
+                final int eq = trimmed.indexOf('=');
+                final String key = eq == -1 ? trimmed : trimmed.substring(0, eq).trim();
+                final String value = eq == -1 ? "" : trimmed.substring(eq + 1).trim();
+                if ("packages".equals(key))
+                    packages = value.isEmpty() ? new String[0] : value.split("\\s*,\\s*");
+                else if ("rate".equals(key))
+                    rate = Double.parseDouble(value);
+                else
+                    throw new IllegalArgumentException("Unknown WarpAgent option: " + key);
+            }
+        }
+
+        final WarpTransformer transformer = new WarpTransformer(packages);
+        final boolean canRetransform = retransform && inst.isRetransformClassesSupported();
+        inst.addTransformer(transformer, canRetransform);
+
+        if (rate > 0) {
+            final WarpClock clock = new WarpClock();
+            WarpTime.setClock(clock);
+            new WarpClockDriver(clock, rate).start();
+        }
+
+        if (canRetransform) {
+            final List<Class<?>> classes = new ArrayList<>();
+            for (final Class<?> c : inst.getAllLoadedClasses()) {
+                if (c.getClassLoader() != null && inst.isModifiableClass(c)
+                        && transformer.isTransformable(c.getName().replace('.', '/')))
+                    classes.add(c);
+            }
+            try {
+                inst.retransformClasses(classes.toArray(new Class<?>[classes.size()]));
+            } catch (final UnmodifiableClassException e) {
+                LOG.warn("Failed to rewrite loaded classes", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp.agent;
+
+import java.util.concurrent.TimeUnit;
+
+import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpUtils;
+
+/**
+ * The replacements for the JDK time calls that the WarpTransformer rewrites. Each method consults the global clock if
+ * one has been set, and otherwise behaves exactly like the call that it replaces, so that instrumented code runs in
+ * real time until a clock is set.
+ *
+ * The clock should be set before the instrumented code starts, since nanoTime jumps when the clock changes.
+ *
+ * @author Matthew Lohbihler
+ */
+public class WarpTime {
+    private static volatile WarpClock clock;
+
+    public static WarpClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Sets the clock that instrumented code uses, or null to return it to real time.
+     */
+    public static void setClock(final WarpClock clock) {
+        WarpTime.clock = clock;
+    }
+
+    /**
+     * Replaces System.currentTimeMillis.
+     */
+    public static long currentTimeMillis() {
+        final WarpClock c = clock;
+        if (c == null)
+            return System.currentTimeMillis();
+        return c.millis();
+    }
+
+    /**
+     * Replaces System.nanoTime. The clock's epoch nanos are used, which serve just as well as an arbitrary origin.
+     */
+    public static long nanoTime() {
+        final WarpClock c = clock;
+        if (c == null)
+            return System.nanoTime();
+        return c.getEpochNanos();
+    }
+
+    /**
+     * Replaces Thread.sleep(long).
+     */
+    public static void sleep(final long millis) throws InterruptedException {
+        final WarpClock c = clock;
+        // Leave zero and invalid arguments to the JDK.
+        if (c == null || millis <= 0)
+            Thread.sleep(millis);
+        else
+            WarpUtils.sleep(c, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces Thread.sleep(long, int).
+     */
+    public static void sleep(final long millis, final int nanos) throws InterruptedException {
+        final WarpClock c = clock;
+        if (c == null || millis < 0 || nanos < 0 || nanos > 999_999 || millis == 0 && nanos == 0)
+            Thread.sleep(millis, nanos);
+        else
+            WarpUtils.sleep(c, TimeUnit.MILLISECONDS.toNanos(millis) + nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Replaces Object.wait(long). A timeout of 0 still waits indefinitely.
+     */
+    public static void wait(final Object o, final long timeout) throws InterruptedException {
+        final WarpClock c = clock;
+        if (c == null || timeout <= 0)
+            o.wait(timeout);
+        else {
+            // WarpUtils.wait takes the monitor itself, so check that the caller holds it as Object.wait would.
+            if (!Thread.holdsLock(o))
+                throw new IllegalMonitorStateException();
+            WarpUtils.wait(c, o, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Replaces Object.wait(long, int).
+     */
+    public static void wait(final Object o, final long timeout, final int nanos) throws InterruptedException {
+        final WarpClock c = clock;
+        if (c == null || timeout < 0 || nanos < 0 || nanos > 999_999 || timeout == 0 && nanos == 0)
+            o.wait(timeout, nanos);
+        else {
+            if (!Thread.holdsLock(o))
+                throw new IllegalMonitorStateException();
+            WarpUtils.wait(c, o, TimeUnit.MILLISECONDS.toNanos(timeout) + nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
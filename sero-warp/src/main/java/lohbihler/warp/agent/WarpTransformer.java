@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.warp.agent;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rewrites calls to System.currentTimeMillis, System.nanoTime, Thread.sleep and Object.wait with a timeout into calls
+ * to the equivalent methods in WarpTime. The replacements take the same arguments from the stack - the receiver of
+ * wait becomes the first argument - so only the call instructions change, and stack map frames are copied as they are.
+ * Method handles to the same methods, e.g. in the invokedynamic instructions of method references such as
+ * System::nanoTime, are pointed at WarpTime in the same way.
+ *
+ * Classes of the JDK, of this library and of its dependencies are never rewritten, nor are classes loaded by the
+ * bootstrap class loader. If packages are given, only classes in them are rewritten.
+ *
+ * @author Matthew Lohbihler
+ */
+public class WarpTransformer implements ClassFileTransformer {
+    static final Logger LOG = LoggerFactory.getLogger(WarpTransformer.class);
+
+    private static final String[] EXCLUDED = { "java/", "javax/", "jdk/", "sun/", "com/sun/", "lohbihler/warp/",
+            "org/objectweb/asm/", "org/slf4j/" };
+    private static final String WARP_TIME = "lohbihler/warp/agent/WarpTime";
+
+    // Internal name prefixes of the packages to rewrite, or empty for all.
+    private final String[] packages;
+
+    /**
+     * @param packages
+     *            the names of the packages whose classes, including those of sub-packages, should be rewritten. If
+     *            none are given, all classes are.
+     */
+    public WarpTransformer(final String... packages) {
+        this.packages = new String[packages.length];
+        for (int i = 0; i < packages.length; i++) {
+            final String name = packages[i].replace('.', '/');
+            this.packages[i] = name.endsWith("/") ? name : name + "/";
+        }
+    }
+
+    /**
+     * @param className
+     *            the internal name of the class, e.g. com/example/Foo
+     */
+    public boolean isTransformable(final String className) {
+        for (final String prefix : EXCLUDED) {
+            if (className.startsWith(prefix))
+                return false;
+        }
+        if (packages.length == 0)
+            return true;
+        for (final String prefix : packages) {
+            if (className.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+            final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+        // Hidden and bootstrap classes cannot see WarpTime.
+        if (loader == null || className == null || !isTransformable(className))
+            return null;
+
+        try {
+            return rewrite(classfileBuffer);
+        } catch (final RuntimeException e) {
+            // Exceptions thrown from here are swallowed by the JVM, so log them and leave the class as it is.
+            LOG.warn("Failed to rewrite class {}", className, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the rewritten class file, or null if the class does not call any of the time methods.
+     */
+    public byte[] rewrite(final byte[] classfileBuffer) {
+        final ClassReader reader = new ClassReader(classfileBuffer);
+        // Passing the reader lets unchanged methods be copied as they are.
+        final ClassWriter writer = new ClassWriter(reader, 0);
+        final Rewriter rewriter = new Rewriter(writer);
+        reader.accept(rewriter, 0);
+        return rewriter.changed ? writer.toByteArray() : null;
+    }
+
+    static class Rewriter extends ClassVisitor {
+        boolean changed;
+
+        Rewriter(final ClassVisitor cv) {
+            super(Opcodes.ASM9, cv);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(final int access, final String name, final String desc,
+                final String signature, final String[] exceptions) {
+            final MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+            return new MethodVisitor(Opcodes.ASM9, mv) {
+                @Override
+                public void visitMethodInsn(final int opcode, final String owner, final String name,
+                        final String desc, final boolean itf) {
+                    final String replacement = replacement(opcode, owner, name, desc);
+                    if (replacement == null)
+                        super.visitMethodInsn(opcode, owner, name, desc, itf);
+                    else {
+                        changed = true;
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, WARP_TIME, name, replacement, false);
+                    }
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(final String name, final String desc, final Handle bsm,
+                        final Object... bsmArgs) {
+                    final Object[] args = bsmArgs.clone();
+                    for (int i = 0; i < args.length; i++)
+                        args[i] = rewriteConstant(args[i]);
+                    super.visitInvokeDynamicInsn(name, desc, bsm, args);
+                }
+
+                @Override
+                public void visitLdcInsn(final Object value) {
+                    super.visitLdcInsn(rewriteConstant(value));
+                }
+            };
+        }
+
+        /**
+         * @return the constant, with a method handle to one of the time methods replaced by one to WarpTime.
+         */
+        Object rewriteConstant(final Object value) {
+            if (!(value instanceof Handle))
+                return value;
+            final Handle handle = (Handle) value;
+            final int opcode;
+            switch (handle.getTag()) {
+            case Opcodes.H_INVOKESTATIC:
+                opcode = Opcodes.INVOKESTATIC;
+                break;
+            case Opcodes.H_INVOKEVIRTUAL:
+                opcode = Opcodes.INVOKEVIRTUAL;
+                break;
+            case Opcodes.H_INVOKEINTERFACE:
+                opcode = Opcodes.INVOKEINTERFACE;
+                break;
+            default:
+                return value;
+            }
+            final String replacement = replacement(opcode, handle.getOwner(), handle.getName(), handle.getDesc());
+            if (replacement == null)
+                return value;
+            changed = true;
+            return new Handle(Opcodes.H_INVOKESTATIC, WARP_TIME, handle.getName(), replacement, false);
+        }
+    }
+
+    /**
+     * @return the descriptor of the WarpTime method that replaces the given call, or null if it is not replaced.
+     */
+    static String replacement(final int opcode, final String owner, final String name, final String desc) {
+        if (opcode == Opcodes.INVOKESTATIC) {
+            if ("java/lang/System".equals(owner) && ("currentTimeMillis".equals(name) || "nanoTime".equals(name))
+                    && "()J".equals(desc))
+                return desc;
+            if ("java/lang/Thread".equals(owner) && "sleep".equals(name)
+                    && ("(J)V".equals(desc) || "(JI)V".equals(desc)))
+                return desc;
+        } else if (opcode == Opcodes.INVOKEVIRTUAL || opcode == Opcodes.INVOKEINTERFACE) {
+            // Object.wait is final, so any call with this signature is to it, whatever the owner.
+            if ("wait".equals(name) && ("(J)V".equals(desc) || "(JI)V".equals(desc)))
+                return "(Ljava/lang/Object;" + desc.substring(1);
+        }
+        return null;
+    }
+}
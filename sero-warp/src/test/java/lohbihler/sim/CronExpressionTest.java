@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import org.junit.Test;
+
+import lohbihler.warp.CronExpression;
+
+public class CronExpressionTest {
+    private static final LocalDateTime START = LocalDateTime.of(2017, 3, 1, 10, 15, 30);
+
+    private static LocalDateTime next(final String cron, final LocalDateTime after) {
+        return CronExpression.parse(cron).next(after);
+    }
+
+    @Test
+    public void fields() {
+        assertEquals(LocalDateTime.of(2017, 3, 1, 10, 16), next("* * * * *", START));
+        assertEquals(LocalDateTime.of(2017, 3, 1, 10, 15, 31), next("* * * * * *", START));
+        assertEquals(LocalDateTime.of(2017, 3, 1, 11, 0), next("@hourly", START));
+        assertEquals(LocalDateTime.of(2017, 3, 2, 0, 0), next("@daily", START));
+        assertEquals(LocalDateTime.of(2017, 3, 5, 0, 0), next("@weekly", START));
+        assertEquals(LocalDateTime.of(2017, 4, 1, 0, 0), next("@monthly", START));
+        assertEquals(LocalDateTime.of(2018, 1, 1, 0, 0), next("@yearly", START));
+
+        assertEquals(LocalDateTime.of(2017, 3, 1, 10, 30), next("*/15 * * * *", START));
+        assertEquals(LocalDateTime.of(2017, 3, 1, 10, 20), next("5/15 * * * *", START));
+        assertEquals(LocalDateTime.of(2017, 3, 1, 12, 0), next("0 9-17/3 * * *", START));
+        assertEquals(LocalDateTime.of(2017, 3, 1, 10, 45, 0), next("0 0,45 * * * ?", START));
+        assertEquals(LocalDateTime.of(2017, 6, 15, 8, 0), next("0 8 15 jun,dec *", START));
+        // 2017-03-01 is a Wednesday.
+        assertEquals(LocalDateTime.of(2017, 3, 3, 9, 0), next("0 9 * * FRI", START));
+        assertEquals(LocalDateTime.of(2017, 3, 5, 9, 0), next("0 9 * * 7", START));
+        assertEquals(LocalDateTime.of(2017, 3, 6, 9, 0), next("0 9 * * MON-FRI", next("0 9 * * MON-FRI",
+                LocalDateTime.of(2017, 3, 3, 9, 0).minusSeconds(1))));
+
+        // If both days are restricted, either matches.
+        assertEquals(LocalDateTime.of(2017, 3, 3, 0, 0), next("0 0 13 * 5", START));
+        assertEquals(LocalDateTime.of(2017, 3, 13, 0, 0), next("0 0 13 * 5", LocalDateTime.of(2017, 3, 10, 0, 0)));
+
+        // Months without the day are skipped.
+        assertEquals(LocalDateTime.of(2017, 3, 31, 0, 0), next("0 0 31 * *", START));
+        assertEquals(LocalDateTime.of(2017, 5, 31, 0, 0), next("0 0 31 * *", LocalDateTime.of(2017, 3, 31, 0, 0)));
+        assertEquals(LocalDateTime.of(2020, 2, 29, 0, 0), next("0 0 29 2 *", START));
+        assertNull(next("0 0 30 2 *", START));
+    }
+
+    @Test
+    public void invalid() {
+        for (final String cron : new String[] { "* * * *", "60 * * * *", "* 24 * * *", "* * 0 * *", "* * * 13 *",
+                "* * * * 8", "5-1 * * * *", "x * * * *", "@often" }) {
+            try {
+                CronExpression.parse(cron);
+                fail("Should have failed: " + cron);
+            } catch (final IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void daylightSaving() {
+        final ZoneId zone = ZoneId.of("America/New_York");
+        final CronExpression daily = CronExpression.parse("30 2 * * *");
+
+        // On 2017-03-12 the clocks go forward from 02:00 to 03:00, so 02:30 does not exist.
+        ZonedDateTime t = daily.next(ZonedDateTime.of(LocalDateTime.of(2017, 3, 11, 12, 0), zone));
+        assertEquals(LocalDateTime.of(2017, 3, 12, 3, 30), t.toLocalDateTime());
+        t = daily.next(t);
+        assertEquals(LocalDateTime.of(2017, 3, 13, 2, 30), t.toLocalDateTime());
+
+        // On 2017-11-05 the clocks go back from 02:00 to 01:00, so 01:00 to 02:00 occurs twice, but fires once.
+        final CronExpression hourly = CronExpression.parse("@hourly");
+        t = ZonedDateTime.of(LocalDateTime.of(2017, 11, 5, 0, 0), zone);
+        t = hourly.next(t);
+        assertEquals(LocalDateTime.of(2017, 11, 5, 1, 0), t.toLocalDateTime());
+        t = hourly.next(t);
+        assertEquals(LocalDateTime.of(2017, 11, 5, 2, 0), t.toLocalDateTime());
+        assertEquals(ZonedDateTime.of(LocalDateTime.of(2017, 11, 5, 0, 0), zone).plusHours(3), t);
+    }
+
+    @Test
+    public void simulatedYear() {
+        // Evaluating a schedule across a year is cheap.
+        final CronExpression cron = CronExpression.parse("*/5 8-18 * * MON-FRI");
+        LocalDateTime t = LocalDateTime.of(2017, 1, 1, 0, 0);
+        int count = 0;
+        while (t.getYear() == 2017) {
+            t = cron.next(t);
+            count++;
+        }
+        // 260 weekdays, 11 hours of 12 runs each, plus the first run of 2018.
+        assertEquals(260 * 11 * 12 + 1, count);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import lohbihler.warp.LatencyHistogram;
+
+public class LatencyHistogramTest {
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        for (int i = 1; i <= 10_000; i++)
+            histogram.record(i * 1000L);
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000, histogram.getMax());
+        assertEquals(5_000_500, histogram.getMean(), 0.001);
+
+        // Within the resolution of the buckets.
+        assertClose(5_000_000, histogram.getValueAtPercentile(50));
+        assertClose(9_000_000, histogram.getValueAtPercentile(90));
+        assertClose(9_900_000, histogram.getValueAtPercentile(99));
+        assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+
+        // Small values are exact, and negative values count as 0.
+        histogram.reset();
+        histogram.record(-5);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getValueAtPercentile(10));
+        assertEquals(3, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+        assertEquals(3, histogram.snapshot().getCount());
+    }
+
+    private static void assertClose(final long expected, final long actual) {
+        assertTrue(expected + " vs " + actual, Math.abs(actual - expected) <= expected * 0.04);
+    }
+}
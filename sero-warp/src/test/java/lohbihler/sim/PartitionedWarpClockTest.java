@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import lohbihler.warp.PartitionedWarpClock;
+import lohbihler.warp.PartitionedWarpClock.Partition;
+import lohbihler.warp.WarpScheduledExecutorService;
+
+public class PartitionedWarpClockTest {
+    private static final LocalDateTime START = LocalDateTime.of(2017, 1, 1, 0, 0);
+
+    @Test
+    public void independentPartitions() {
+        final PartitionedWarpClock clock = new PartitionedWarpClock(ZoneOffset.UTC, START, 1, TimeUnit.SECONDS, 4);
+        final List<AtomicInteger> counts = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final Partition partition = clock.newPartition();
+            final WarpScheduledExecutorService scheduler = new WarpScheduledExecutorService(partition.getClock(), true);
+            final AtomicInteger count = new AtomicInteger();
+            counts.add(count);
+            // Each partition does something every second, in a different phase.
+            scheduler.scheduleAtFixedRate(() -> count.incrementAndGet(), 100 * i, 1000, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(START.plusHours(1), clock.advance(1, TimeUnit.HOURS));
+        for (int i = 0; i < 8; i++) {
+            // The first partition also runs at the start, and at the end.
+            assertEquals(i == 0 ? 3601 : 3600, counts.get(i).get());
+            assertEquals(START.plusHours(1), clock.getPartitions().get(i).getClock().getDateTime());
+        }
+        clock.shutdown();
+    }
+
+    @Test
+    public void events() {
+        final PartitionedWarpClock clock = new PartitionedWarpClock(ZoneOffset.UTC, START, 1, TimeUnit.SECONDS, 2);
+        final Partition ping = clock.newPartition();
+        final Partition pong = clock.newPartition();
+        final List<String> log = Collections.synchronizedList(new ArrayList<>());
+
+        // Each side answers the other after a random-ish delay that is at least the lookahead.
+        final Runnable[] handlers = new Runnable[2];
+        handlers[0] = () -> {
+            log.add("ping " + ping.getClock().getDateTime().toLocalTime());
+            if (log.size() < 6)
+                ping.send(pong, handlers[1], 1500, TimeUnit.MILLISECONDS);
+        };
+        handlers[1] = () -> {
+            log.add("pong " + pong.getClock().getDateTime().toLocalTime());
+            pong.send(ping, handlers[0], 1, TimeUnit.SECONDS);
+        };
+        new WarpScheduledExecutorService(ping.getClock(), true).schedule(handlers[0], 1, TimeUnit.MINUTES);
+
+        clock.advance(1, TimeUnit.HOURS);
+        assertEquals(Arrays.asList("ping 00:01", "pong 00:01:01.500", "ping 00:01:02.500", "pong 00:01:04",
+                "ping 00:01:05", "pong 00:01:06.500", "ping 00:01:07.500"), log);
+
+        // An event that would arrive within the lookahead could be missed by its target.
+        try {
+            ping.send(pong, () -> log.add("late"), 999, TimeUnit.MILLISECONDS);
+            fail("Should have failed");
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+        clock.shutdown();
+    }
+
+    @Test
+    public void sequentialEquivalence() {
+        // The same simulation gives the same results whatever the number of threads.
+        final List<List<Long>> results = new ArrayList<>();
+        for (final int threads : new int[] { 1, 4 }) {
+            final PartitionedWarpClock clock = new PartitionedWarpClock(ZoneOffset.UTC, START, 10,
+                    TimeUnit.MILLISECONDS, threads);
+            final List<Partition> partitions = new ArrayList<>();
+            // Only touched by the partition's own clock.
+            final long[] sums = new long[6];
+            for (int i = 0; i < 6; i++)
+                partitions.add(clock.newPartition());
+            for (int i = 0; i < 6; i++) {
+                final Partition partition = partitions.get(i);
+                final Partition neighbour = partitions.get((i + 1) % 6);
+                final int index = i;
+                final WarpScheduledExecutorService scheduler = new WarpScheduledExecutorService(partition.getClock(),
+                        true);
+                scheduler.scheduleAtFixedRate(() -> {
+                    sums[index] = sums[index] * 31 + partition.getClock().millis() % 1000;
+                    partition.send(neighbour, () -> sums[(index + 1) % 6] *= 7, 10 + index, TimeUnit.MILLISECONDS);
+                }, 0, 7 + i, TimeUnit.MILLISECONDS);
+            }
+            clock.advance(1, TimeUnit.MINUTES);
+            final List<Long> result = new ArrayList<>();
+            for (final long sum : sums)
+                result.add(sum);
+            results.add(result);
+            clock.shutdown();
+        }
+        assertEquals(results.get(0), results.get(1));
+    }
+}
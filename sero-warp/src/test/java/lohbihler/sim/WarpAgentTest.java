@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2017, Matthew Lohbihler
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package lohbihler.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import lohbihler.warp.WarpClock;
+import lohbihler.warp.agent.WarpTime;
+import lohbihler.warp.agent.WarpTransformer;
+
+public class WarpAgentTest {
+    /**
+     * Code that knows nothing about WarpClock.
+     */
+    public static class Legacy {
+        public static long millis() {
+            return System.currentTimeMillis();
+        }
+
+        public static long nanos() {
+            return System.nanoTime();
+        }
+
+        public static void sleep(final long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+
+        public static void await(final Object lock, final long timeout) throws InterruptedException {
+            synchronized (lock) {
+                lock.wait(timeout);
+            }
+        }
+
+        // Method references, which are bound through invokedynamic rather than called directly.
+        public static LongSupplier nanoSupplier() {
+            return System::nanoTime;
+        }
+
+        public static Sleeper sleeper() {
+            return Thread::sleep;
+        }
+    }
+
+    public interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    /**
+     * Loads Legacy as rewritten by the transformer, and everything else from the parent.
+     */
+    static class RewritingClassLoader extends ClassLoader {
+        private final WarpTransformer transformer;
+
+        RewritingClassLoader(final WarpTransformer transformer) {
+            super(WarpAgentTest.class.getClassLoader());
+            this.transformer = transformer;
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(Legacy.class.getName()))
+                return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    final byte[] original = readClass(name);
+                    byte[] b = transformer.transform(this, name.replace('.', '/'), null, null, original);
+                    if (b == null)
+                        b = original;
+                    c = defineClass(name, b, 0, b.length);
+                }
+                return c;
+            }
+        }
+    }
+
+    static byte[] readClass(final String name) {
+        try (InputStream in = WarpAgentTest.class.getResourceAsStream("/" + name.replace('.', '/') + ".class")) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[4096];
+            int read;
+            while ((read = in.read(buf)) != -1)
+                out.write(buf, 0, read);
+            return out.toByteArray();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @After
+    public void after() {
+        WarpTime.setClock(null);
+    }
+
+    @Test
+    public void filters() {
+        final WarpTransformer all = new WarpTransformer();
+        assertTrue(all.isTransformable("com/example/Foo"));
+        assertFalse(all.isTransformable("java/lang/Thread"));
+        assertFalse(all.isTransformable("lohbihler/warp/WarpClock"));
+
+        final WarpTransformer some = new WarpTransformer("com.example", "org.example.");
+        assertTrue(some.isTransformable("com/example/Foo"));
+        assertTrue(some.isTransformable("org/example/sub/Foo"));
+        assertFalse(some.isTransformable("com/examples/Foo"));
+
+        // Classes without time calls are left as they are.
+        assertNull(all.rewrite(readClass(RewritingClassLoader.class.getName())));
+    }
+
+    @Test
+    public void modernClassFiles() {
+        // A class compiled for Java 11 with a nested class, which has nest attributes that older ASM visitors reject.
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "com/example/Outer", null, "java/lang/Object",
+                null);
+        cw.visitNestMember("com/example/Outer$Inner");
+        cw.visitInnerClass("com/example/Outer$Inner", "com/example/Outer", "Inner", Opcodes.ACC_STATIC);
+        final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "millis", "()J", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "currentTimeMillis", "()J", false);
+        mv.visitInsn(Opcodes.LRETURN);
+        mv.visitMaxs(2, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        final byte[] rewritten = new WarpTransformer().rewrite(cw.toByteArray());
+        assertNotNull(rewritten);
+
+        final List<String> owners = new ArrayList<>();
+        new ClassReader(rewritten).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String desc,
+                    final String signature, final String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMethodInsn(final int opcode, final String owner, final String name,
+                            final String desc, final boolean itf) {
+                        owners.add(owner + "." + name);
+                    }
+                };
+            }
+        }, 0);
+        assertEquals(Arrays.asList("lohbihler/warp/agent/WarpTime.currentTimeMillis"), owners);
+    }
+
+    @Test
+    public void rewrite() throws Exception {
+        final Class<?> legacy = new RewritingClassLoader(new WarpTransformer()).loadClass(Legacy.class.getName());
+        final Method millis = legacy.getMethod("millis");
+        final Method nanos = legacy.getMethod("nanos");
+        final Method sleep = legacy.getMethod("sleep", long.class);
+        final Method await = legacy.getMethod("await", Object.class, long.class);
+        final LongSupplier nanoSupplier = (LongSupplier) legacy.getMethod("nanoSupplier").invoke(null);
+        final Sleeper sleeper = (Sleeper) legacy.getMethod("sleeper").invoke(null);
+
+        // Real time until a clock is set.
+        final long now = System.currentTimeMillis();
+        assertTrue(Math.abs((Long) millis.invoke(null) - now) < 10_000);
+
+        final WarpClock clock = new WarpClock(ZoneId.of("UTC"), LocalDateTime.of(2017, 1, 1, 0, 0));
+        WarpTime.setClock(clock);
+        assertEquals(clock.millis(), millis.invoke(null));
+        assertEquals(clock.getEpochNanos(), nanos.invoke(null));
+        assertEquals(clock.getEpochNanos(), nanoSupplier.getAsLong());
+
+        // A long sleep ends when the clock reaches it.
+        final AtomicBoolean slept = new AtomicBoolean();
+        final Thread sleepThread = new Thread(() -> {
+            try {
+                sleep.invoke(null, TimeUnit.HOURS.toMillis(1));
+                slept.set(true);
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        sleepThread.start();
+        Thread.sleep(50);
+        clock.plusMinutes(59);
+        Thread.sleep(50);
+        assertFalse(slept.get());
+        clock.plusMinutes(1);
+        sleepThread.join(5000);
+        assertTrue(slept.get());
+
+        // Also through a method reference.
+        final AtomicBoolean sleptByReference = new AtomicBoolean();
+        final Thread referenceThread = new Thread(() -> {
+            try {
+                sleeper.sleep(TimeUnit.HOURS.toMillis(1));
+                sleptByReference.set(true);
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        referenceThread.start();
+        Thread.sleep(50);
+        assertFalse(sleptByReference.get());
+        clock.plusHours(1);
+        referenceThread.join(5000);
+        assertTrue(sleptByReference.get());
+
+        // As does a wait.
+        final Object lock = new Object();
+        final AtomicBoolean waited = new AtomicBoolean();
+        final Thread waiter = new Thread(() -> {
+            try {
+                await.invoke(null, lock, TimeUnit.DAYS.toMillis(1));
+                waited.set(true);
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        assertFalse(waited.get());
+        clock.plusDays(1);
+        waiter.join(5000);
+        assertTrue(waited.get());
+        assertEquals(LocalDateTime.of(2017, 1, 2, 2, 0), clock.getDateTime());
+    }
+}
@@ -10,12 +10,17 @@ package lohbihler.sim;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.Month;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -28,6 +33,7 @@ import org.slf4j.LoggerFactory;
 import lohbihler.warp.ClockListener;
 import lohbihler.warp.TimeoutFuture;
 import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpClockDriver;
 
 public class WarpClockTest {
     static final Logger LOG = LoggerFactory.getLogger(WarpClockTest.class);
@@ -253,4 +259,199 @@ public class WarpClockTest {
         assertEquals(58, gc.get(Calendar.MINUTE));
         assertEquals(0, gc.get(Calendar.SECOND));
     }
+
+    @Test
+    public void jumpToNextEvent() {
+        final WarpClock clock = new WarpClock();
+        final LocalDateTime start = clock.getDateTime();
+
+        final List<LocalDateTime> updates = new ArrayList<>();
+        clock.addListener(updates::add);
+
+        final List<LocalDateTime> fired = new ArrayList<>();
+        clock.setTimeout(() -> fired.add(clock.getDateTime()), 30, TimeUnit.DAYS);
+        clock.setTimeout(() -> fired.add(clock.getDateTime()), 10, TimeUnit.MINUTES);
+        clock.setTimeout(() -> fired.add(clock.getDateTime()), 1, TimeUnit.DAYS);
+
+        assertEquals(start.plusMinutes(10), clock.advanceToNextEvent());
+        assertEquals(1, fired.size());
+
+        assertEquals(start.plusDays(60), clock.advanceUntil(start.plusDays(60)));
+        assertEquals(3, fired.size());
+        assertEquals(start.plusMinutes(10), fired.get(0));
+        assertEquals(start.plusDays(1), fired.get(1));
+        assertEquals(start.plusDays(30), fired.get(2));
+
+        // Only the events and the end time caused updates.
+        assertEquals(4, updates.size());
+
+        assertEquals(Long.MAX_VALUE, clock.getNextDeadline());
+        assertEquals(null, clock.advanceToNextEvent());
+
+        clock.setTimeout(() -> fired.add(clock.getDateTime()), 1, TimeUnit.HOURS);
+        clock.setTimeout(() -> fired.add(clock.getDateTime()), 2, TimeUnit.HOURS);
+        assertEquals(start.plusDays(60).plusHours(2), clock.runUntilIdle());
+        assertEquals(5, fired.size());
+
+        assertEquals(start.plusDays(60).plusHours(3), clock.advance(1, TimeUnit.HOURS));
+    }
+
+    @Test
+    public void manyTimeouts() {
+        final WarpClock clock = new WarpClock();
+
+        // Create timeouts in reverse order, cancelling every third one.
+        final List<Integer> fired = new ArrayList<>();
+        for (int i = 9999; i >= 0; i--) {
+            final int index = i;
+            final TimeoutFuture<?> future = clock.setTimeout(() -> fired.add(index), i, TimeUnit.SECONDS);
+            if (i % 3 == 0)
+                future.cancel();
+        }
+        // Cancelled timeouts are removed right away.
+        assertEquals(6666, clock.getTimeoutCount());
+
+        clock.plusSeconds(5000);
+        assertEquals(3334, fired.size());
+        assertEquals(3332, clock.getTimeoutCount());
+        clock.plusSeconds(5000);
+        assertEquals(6666, fired.size());
+
+        // Fired in order of deadline.
+        for (int i = 1; i < fired.size(); i++) {
+            assertTrue(fired.get(i - 1) < fired.get(i));
+            assertTrue(fired.get(i) % 3 != 0);
+        }
+        assertEquals(0, clock.getTimeoutCount());
+        assertEquals(Long.MAX_VALUE, clock.getNextDeadline());
+    }
+
+    @Test
+    public void timeoutCompletionStage() {
+        final WarpClock clock = new WarpClock();
+        final List<Object> results = new ArrayList<>();
+
+        clock.setTimeout(() -> "fired", 1, TimeUnit.SECONDS).toCompletionStage().thenAccept(results::add);
+        final TimeoutFuture<?> cancelled = clock.setTimeout(() -> "cancelled", 1, TimeUnit.SECONDS);
+        cancelled.toCompletionStage().exceptionally(e -> {
+            results.add(e.getClass());
+            return null;
+        });
+        cancelled.cancel();
+        assertEquals(1, results.size());
+        assertEquals(CancellationException.class, results.get(0));
+
+        // Dependent actions run in the thread that updates the clock.
+        clock.plusSeconds(1);
+        assertEquals(2, results.size());
+        assertEquals("fired", results.get(1));
+    }
+
+    @Test
+    public void driver() throws Exception {
+        final WarpClock clock = new WarpClock();
+        final LocalDateTime start = clock.getDateTime();
+
+        // An hour every 100ms.
+        final WarpClockDriver driver = new WarpClockDriver(clock, 36_000).withTick(0, TimeUnit.MILLISECONDS);
+        driver.start();
+        try {
+            final long wallStart = System.nanoTime();
+            final TimeoutFuture<LocalDateTime> future = clock.setTimeout(() -> clock.getDateTime(), 1, TimeUnit.HOURS);
+            // Fires at exactly the deadline, at about the right real time.
+            assertEquals(start.plusHours(1), future.get());
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - wallStart);
+            assertTrue(Long.toString(elapsed), elapsed >= 90 && elapsed < 1000);
+
+            // Nothing happens while paused.
+            driver.pause();
+            final LocalDateTime paused = clock.getDateTime();
+            final TimeoutFuture<?> pausedFuture = clock.setTimeout(() -> LOG.info("Timeout"), 1, TimeUnit.MINUTES);
+            Thread.sleep(50);
+            assertEquals(paused, clock.getDateTime());
+
+            // Speed up on resume.
+            driver.setRate(3_600_000);
+            driver.resume();
+            pausedFuture.get();
+
+            // Ticks update the clock between events.
+            driver.setTick(10, TimeUnit.MILLISECONDS);
+            final LocalDateTime before = clock.getDateTime();
+            Thread.sleep(50);
+            assertTrue(clock.getDateTime().isAfter(before));
+        } finally {
+            driver.stop();
+        }
+        assertFalse(driver.isRunning());
+
+        // A driver that is interrupted stops, and detaches from the clock so that another can drive it.
+        driver.start();
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("WarpClockDriver".equals(thread.getName())) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+        assertFalse(driver.isRunning());
+        final WarpClockDriver other = new WarpClockDriver(clock, 36_000);
+        other.start();
+        other.stop();
+    }
+
+    @Test
+    public void range() {
+        // Times are held as epoch nanos in a long, which covers 1677-09-21 to 2262-04-11.
+        final WarpClock clock = new WarpClock(ZoneId.of("UTC"), LocalDateTime.of(2262, 1, 1, 0, 0));
+        try {
+            clock.plusYears(1);
+            fail("Should have failed");
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(LocalDateTime.of(2262, 1, 1, 0, 0), clock.getDateTime());
+
+        try {
+            new WarpClock(ZoneId.of("UTC"), LocalDateTime.of(1600, 1, 1, 0, 0));
+            fail("Should have failed");
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void timeoutAcrossDaylightSaving() {
+        // On 2017-11-05 the clocks in New York go back from 02:00 EDT to 01:00 EST.
+        final WarpClock clock = new WarpClock(ZoneId.of("America/New_York"), LocalDateTime.of(2017, 11, 5, 0, 30));
+        final long start = clock.getEpochNanos();
+
+        // Move to 01:30 EST, the second occurrence of 01:30.
+        clock.setTimeout(() -> LOG.info("Timeout"), 2, TimeUnit.HOURS);
+        clock.advanceToNextEvent();
+        assertEquals(start + TimeUnit.HOURS.toNanos(2), clock.getEpochNanos());
+        assertEquals(LocalDateTime.of(2017, 11, 5, 1, 30), clock.getDateTime());
+
+        // A timeout is the given amount of elapsed time later, not 01:40 EDT, which has already passed.
+        final AtomicBoolean fired = new AtomicBoolean();
+        clock.setTimeout(() -> fired.set(true), 10, TimeUnit.MINUTES);
+        assertEquals(clock.getEpochNanos() + TimeUnit.MINUTES.toNanos(10), clock.getNextDeadline());
+        clock.plusNanos(0);
+        assertFalse(fired.get());
+        clock.advanceToNextEvent();
+        assertTrue(fired.get());
+        assertEquals(LocalDateTime.of(2017, 11, 5, 1, 40), clock.getDateTime());
+    }
+
+    @Test
+    public void epochNanos() {
+        final ZoneId zone = ZoneId.of("America/Toronto");
+        final WarpClock clock = new WarpClock(zone, LocalDateTime.of(2017, Month.MARCH, 12, 1, 59, 59, 999_999_999));
+        assertEquals(Instant.parse("2017-03-12T06:59:59.999999999Z"), clock.instant());
+
+        // Across a daylight savings change.
+        clock.plusNanos(1);
+        assertEquals(Instant.parse("2017-03-12T07:00:00Z"), clock.instant());
+        assertEquals(clock.getDateTime().atZone(zone).toInstant().toEpochMilli(), clock.millis());
+        assertEquals(1_489_302_000_000_000_000L, clock.getEpochNanos());
+    }
 }
@@ -12,23 +12,48 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import lohbihler.warp.ScheduleSpec;
+import lohbihler.warp.WarpCheckpoint;
 import lohbihler.warp.WarpClock;
+import lohbihler.warp.WarpExecutors;
 import lohbihler.warp.WarpScheduledExecutorService;
+import lohbihler.warp.WarpScheduledFuture;
+import lohbihler.warp.WarpSchedulerMetrics;
+import lohbihler.warp.WarpUtils;
 
 public class WarpScheduledExecutorServiceTest {
     private WarpClock clock;
@@ -278,6 +303,622 @@ public class WarpScheduledExecutorServiceTest {
         assertFalse(future.cancel(false));
     }
 
+    @Test
+    public void inline() throws Exception {
+        final WarpScheduledExecutorService inline = new WarpScheduledExecutorService(clock, true);
+        final List<String> runs = new ArrayList<>();
+
+        inline.schedule(() -> runs.add("b"), 2, TimeUnit.MINUTES);
+        inline.schedule(() -> {
+            runs.add("a1");
+            // Scheduled for now, so runs in the same update, but after the tasks that are already due.
+            inline.schedule(() -> runs.add("a3"), 0, TimeUnit.MINUTES);
+        }, 1, TimeUnit.MINUTES);
+        inline.schedule(() -> runs.add("a2"), 1, TimeUnit.MINUTES);
+        final ScheduledFuture<String> callable = inline.schedule(() -> "c", 3, TimeUnit.MINUTES);
+        final ScheduledFuture<?> rate = inline.scheduleAtFixedRate(() -> runs.add("r"), 150, 60, TimeUnit.SECONDS);
+
+        // No sleeps are required.
+        clock.plusMinutes(1);
+        assertEquals("[a1, a2, a3]", runs.toString());
+
+        clock.plusMinutes(1);
+        assertEquals("[a1, a2, a3, b]", runs.toString());
+
+        clock.plusMinutes(10);
+        assertTrue(callable.isDone());
+        assertEquals("c", callable.get());
+        assertEquals("[a1, a2, a3, b, r, r, r, r, r, r, r, r, r, r]", runs.toString());
+        rate.cancel(false);
+
+        // Tasks that are due when scheduled run immediately.
+        inline.schedule(() -> runs.add("now"), 0, TimeUnit.MINUTES);
+        assertEquals("now", runs.get(runs.size() - 1));
+
+        // A due task that is cancelled by another in the same update does not run.
+        final List<ScheduledFuture<?>> cancelled = new ArrayList<>();
+        inline.schedule(() -> cancelled.get(0).cancel(false), 1, TimeUnit.MINUTES);
+        cancelled.add(inline.schedule(() -> runs.add("cancelled"), 1, TimeUnit.MINUTES));
+        clock.plusMinutes(1);
+        assertFalse(runs.contains("cancelled"));
+
+        inline.shutdown();
+    }
+
+    @Test
+    public void quiescence() throws Exception {
+        clock.setAwaitQuiescence(true);
+
+        final List<String> runs = new ArrayList<>();
+        final ScheduledFuture<String> callable = scheduler.schedule(() -> {
+            // Blocked tasks do not prevent quiescence.
+            WarpUtils.sleep(clock, 5, TimeUnit.MINUTES);
+            synchronized (runs) {
+                runs.add("slept");
+            }
+            scheduler.schedule(() -> {
+                synchronized (runs) {
+                    runs.add("now");
+                }
+            }, 0, TimeUnit.MINUTES);
+            return "done";
+        }, 10, TimeUnit.MINUTES);
+
+        scheduler.execute(() -> {
+            try {
+                final String result = callable.get();
+                synchronized (runs) {
+                    runs.add(result);
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                fail(e.getMessage());
+            }
+        });
+        final ScheduledFuture<?> rate = scheduler.scheduleAtFixedRate(() -> {
+            synchronized (runs) {
+                runs.add("r");
+            }
+        }, 3, 3, TimeUnit.MINUTES);
+
+        // No sleeps are required.
+        clock.plus(10, TimeUnit.MINUTES, 1, TimeUnit.MINUTES);
+        assertEquals("[r, r, r]", runs.toString());
+        // The sleeping task, and the task waiting for it.
+        assertEquals(2, scheduler.getInFlightCount());
+
+        clock.plus(5, TimeUnit.MINUTES, 5, TimeUnit.MINUTES);
+        assertEquals(runs.toString(), 8, runs.size());
+        assertEquals(5, Collections.frequency(runs, "r"));
+        assertTrue(runs.containsAll(Arrays.asList("slept", "now", "done")));
+        assertEquals(0, scheduler.getInFlightCount());
+
+        rate.cancel(false);
+    }
+
+    @Test
+    public void invokeTracksTasks() throws Exception {
+        final CountDownLatch started = new CountDownLatch(3);
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            final int minutes = i;
+            tasks.add(() -> {
+                started.countDown();
+                WarpUtils.sleep(clock, minutes, TimeUnit.MINUTES);
+                return minutes;
+            });
+        }
+
+        final List<Integer> results = new ArrayList<>();
+        final Thread all = new Thread(() -> {
+            try {
+                for (final Future<Integer> future : scheduler.invokeAll(tasks))
+                    results.add(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                fail(e.getMessage());
+            }
+        });
+        all.start();
+        started.await();
+        clock.awaitQuiescence();
+        assertEquals(3, scheduler.getInFlightCount());
+        clock.plus(3, TimeUnit.MINUTES, 1, TimeUnit.MINUTES);
+        all.join();
+        assertEquals("[1, 2, 3]", results.toString());
+        assertEquals(0, scheduler.getInFlightCount());
+
+        final AtomicInteger any = new AtomicInteger();
+        final Thread first = new Thread(() -> {
+            try {
+                any.set(scheduler.invokeAny(tasks));
+            } catch (InterruptedException | ExecutionException e) {
+                fail(e.getMessage());
+            }
+        });
+        final CountDownLatch restarted = new CountDownLatch(3);
+        tasks.replaceAll(task -> () -> {
+            restarted.countDown();
+            return task.call();
+        });
+        first.start();
+        restarted.await();
+        clock.awaitQuiescence();
+        assertEquals(3, scheduler.getInFlightCount());
+        clock.plus(1, TimeUnit.MINUTES, 1, TimeUnit.MINUTES);
+        first.join();
+        assertEquals(1, any.get());
+    }
+
+    @Test
+    public void nextDeadline() {
+        assertEquals(Long.MAX_VALUE, scheduler.getNextDeadline());
+
+        final ScheduledFuture<?> future = scheduler.schedule(() -> true, 5, TimeUnit.DAYS);
+        scheduler.schedule(() -> true, 10, TimeUnit.DAYS);
+        assertEquals(clock.getEpochNanos() + TimeUnit.DAYS.toNanos(5), scheduler.getNextDeadline());
+
+        // Cancelled tasks are not reported.
+        future.cancel(false);
+        assertEquals(clock.getEpochNanos() + TimeUnit.DAYS.toNanos(10), scheduler.getNextDeadline());
+
+        assertEquals(start.plus(Duration.ofDays(10)), clock.advanceToNextEvent().atZone(clock.getZone()).toInstant());
+    }
+
+    @Test
+    public void scheduleAll() throws Exception {
+        final WarpScheduledExecutorService inline = new WarpScheduledExecutorService(clock, true);
+        final List<Integer> runs = new ArrayList<>();
+
+        // A few tasks scheduled individually, and then many more in bulk.
+        inline.schedule(() -> runs.add(500), 500, TimeUnit.SECONDS);
+        inline.schedule(() -> runs.add(1), 1, TimeUnit.SECONDS);
+        final Random random = new Random(42);
+        final List<ScheduleSpec> specs = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            final int delay = random.nextInt(1000);
+            specs.add(new ScheduleSpec(() -> runs.add(delay), delay, TimeUnit.SECONDS));
+        }
+        specs.add(new ScheduleSpec(() -> runs.add(-1), 100, 100, TimeUnit.SECONDS));
+        final List<ScheduledFuture<?>> futures = inline.scheduleAll(specs);
+        assertEquals(specs.size(), futures.size());
+
+        // The tasks with no delay ran right away.
+        final int due = runs.size();
+        assertEquals(10_003 - due, inline.getQueueSize());
+
+        // A second, smaller batch is added without rebuilding the heap.
+        inline.scheduleAll(Arrays.asList(new ScheduleSpec(() -> runs.add(2), 2, TimeUnit.SECONDS),
+                new ScheduleSpec(() -> runs.add(999), 999, TimeUnit.SECONDS)));
+
+        clock.plusSeconds(1000);
+        assertEquals(10_004 + 10, runs.size());
+        futures.get(futures.size() - 1).cancel(false);
+
+        // All ran in order of delay.
+        int last = 0;
+        for (final int run : runs) {
+            if (run == -1)
+                continue;
+            assertTrue(run >= last);
+            last = run;
+        }
+        assertEquals(0, inline.getQueueSize());
+        inline.shutdown();
+    }
+
+    @Test
+    public void slack() throws Exception {
+        final WarpClock clock = new WarpClock(ZoneOffset.UTC, LocalDateTime.of(2017, 1, 1, 0, 0));
+        clock.setAwaitQuiescence(true);
+        final WarpScheduledExecutorService scheduler = new WarpScheduledExecutorService(clock);
+        scheduler.setSlack(1, TimeUnit.MINUTES);
+        assertEquals(60, scheduler.getSlack(TimeUnit.SECONDS));
+
+        final List<String> runs = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        final Runnable recordThread = () -> threads.add(Thread.currentThread());
+        scheduler.schedule(() -> {
+            runs.add("a");
+            recordThread.run();
+        }, 10, TimeUnit.SECONDS);
+        scheduler.schedule(() -> {
+            runs.add("b");
+            recordThread.run();
+        }, 50, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(() -> {
+            runs.add("r");
+            recordThread.run();
+        }, 20, 60, TimeUnit.SECONDS);
+        // Tasks can have their own slack, or none.
+        scheduler.scheduleAll(Arrays.asList(new ScheduleSpec(() -> runs.add("p"), 30, TimeUnit.SECONDS).withSlack(0,
+                TimeUnit.SECONDS), new ScheduleSpec(() -> runs.add("s"), 30, TimeUnit.SECONDS).withSlack(2,
+                        TimeUnit.MINUTES)));
+
+        // The deadlines are rounded up to the minute.
+        assertEquals(TimeUnit.SECONDS.toNanos(30), scheduler.getNextDeadline() - clock.getEpochNanos());
+        clock.plusSeconds(30);
+        assertEquals("[p]", runs.toString());
+        assertEquals(TimeUnit.SECONDS.toNanos(30), scheduler.getNextDeadline() - clock.getEpochNanos());
+        clock.plusSeconds(29);
+        assertEquals(1, runs.size());
+
+        // The tasks in the first minute run together, in one submission.
+        clock.plusSeconds(1);
+        assertEquals("[p, a, b, r]", runs.toString());
+        assertEquals(3, threads.size());
+        assertTrue(threads.get(0) == threads.get(1) && threads.get(1) == threads.get(2));
+
+        // The repeating task keeps its nominal rate, i.e. its next run is at 80s, rounded up to 120s.
+        clock.plusSeconds(60);
+        assertEquals("[p, a, b, r, s, r]", runs.toString());
+
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void keyed() throws Exception {
+        clock.setAwaitQuiescence(true);
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final List<List<Integer>> runs = new ArrayList<>();
+
+        // Tasks for the same key never overlap, and run in order of deadline.
+        for (int k = 0; k < 10; k++) {
+            final List<Integer> keyRuns = new ArrayList<>();
+            runs.add(keyRuns);
+            final String key = "entity" + k;
+            final AtomicInteger running = new AtomicInteger();
+            for (int i = 9; i >= 0; i--) {
+                final int index = i;
+                scheduler.schedule(key, () -> {
+                    if (running.incrementAndGet() > 1)
+                        overlapped.set(true);
+                    keyRuns.add(index);
+                    running.decrementAndGet();
+                }, i, TimeUnit.SECONDS);
+            }
+        }
+        final AtomicInteger rate = new AtomicInteger();
+        scheduler.scheduleAtFixedRate("entity0", () -> rate.incrementAndGet(), 1, 1, TimeUnit.SECONDS);
+
+        clock.plusSeconds(10);
+        assertFalse(overlapped.get());
+        for (final List<Integer> keyRuns : runs)
+            assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9]", keyRuns.toString());
+        assertEquals(10, rate.get());
+        assertEquals(0, scheduler.getInFlightCount());
+
+        // Commands for a key can also be executed directly.
+        final List<Integer> direct = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            scheduler.getSerialExecutor("x").execute(() -> {
+                direct.add(index);
+                latch.countDown();
+            });
+        }
+        latch.await(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, (int) direct.get(i));
+    }
+
+    @Test
+    public void cron() throws Exception {
+        final WarpClock clock = new WarpClock(ZoneId.of("America/New_York"), LocalDateTime.of(2017, 3, 10, 12, 0));
+        clock.setAwaitQuiescence(true);
+        final WarpScheduledExecutorService scheduler = new WarpScheduledExecutorService(clock);
+        final List<LocalDateTime> runs = Collections.synchronizedList(new ArrayList<>());
+
+        // Daily at 02:30 local time, across the change to daylight saving time on 2017-03-12.
+        final ScheduledFuture<?> future = scheduler.scheduleCron(() -> runs.add(clock.getDateTime()), "30 2 * * *");
+        assertEquals(TimeUnit.HOURS.toNanos(14) + TimeUnit.MINUTES.toNanos(30), future.getDelay(TimeUnit.NANOSECONDS));
+
+        while (clock.getDateTime().isBefore(LocalDateTime.of(2017, 3, 14, 0, 0)))
+            clock.advanceToNextEvent();
+        assertEquals(Arrays.asList(LocalDateTime.of(2017, 3, 11, 2, 30), LocalDateTime.of(2017, 3, 12, 3, 30),
+                LocalDateTime.of(2017, 3, 13, 2, 30), LocalDateTime.of(2017, 3, 14, 2, 30)), runs);
+
+        future.cancel(false);
+        assertTrue(future.isDone());
+        assertEquals(Long.MAX_VALUE, scheduler.getNextDeadline());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        clock.setAwaitQuiescence(true);
+        final ObjectName name = scheduler.registerMXBean("metricsTest");
+
+        for (int i = 0; i < 10; i++)
+            scheduler.schedule(() -> {
+                // Nothing
+            }, 1, TimeUnit.SECONDS);
+        scheduler.schedule(() -> {
+            throw new IllegalStateException();
+        }, 1, TimeUnit.SECONDS);
+        scheduler.schedule(() -> {
+            throw new IllegalStateException();
+        }, 2, TimeUnit.MINUTES).cancel(false);
+        scheduler.scheduleAtFixedRate(() -> {
+            // Nothing
+        }, 5, 5, TimeUnit.MINUTES);
+
+        WarpSchedulerMetrics.Snapshot snapshot = scheduler.getMetrics().snapshot();
+        assertEquals(13, snapshot.getScheduledTasks());
+        assertEquals(1, snapshot.getCancelledTasks());
+        assertEquals(12, snapshot.getPendingTasks());
+        assertEquals(0, snapshot.getExecutedTasks());
+
+        clock.plus(10, TimeUnit.MINUTES, 1, TimeUnit.MINUTES);
+        snapshot = scheduler.getMetrics().snapshot();
+        assertEquals(1, snapshot.getPendingTasks());
+        assertEquals(13, snapshot.getExecutedTasks());
+        assertEquals(1, snapshot.getFailedTasks());
+        // The one-time tasks were due after 1s but ran at 1m, and the repeating task ran on time.
+        assertEquals(13, snapshot.getWarpedLag().getCount());
+        assertEquals(TimeUnit.SECONDS.toNanos(59), snapshot.getWarpedLag().getMax());
+        assertEquals(0, scheduler.getMetrics().getWarpedLag().getValueAtPercentile(0));
+
+        // The same values are available through JMX.
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(13L, server.getAttribute(name, "ExecutedTasks"));
+        assertEquals(1, server.getAttribute(name, "PendingTasks"));
+        scheduler.shutdown();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void cancelRemovesTask() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        final List<ScheduledFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            futures.add(scheduler.schedule(() -> counter.incrementAndGet(), i % 100 + 1, TimeUnit.SECONDS));
+        scheduler.scheduleAtFixedRate(() -> counter.incrementAndGet(), 1, 1, TimeUnit.MINUTES);
+        assertEquals(1001, scheduler.getQueueSize());
+
+        // Cancel all but every tenth task, from the middle of the heap as well as the head.
+        for (int i = 0; i < futures.size(); i++) {
+            if (i % 10 != 0)
+                assertTrue(futures.get(i).cancel(false));
+        }
+        assertEquals(101, scheduler.getQueueSize());
+        assertEquals(101, scheduler.shutdownNow().size());
+    }
+
+    @Test
+    public void cancelledTasksDoNotRun() throws Exception {
+        clock.setAwaitQuiescence(true);
+        final List<Integer> runs = Collections.synchronizedList(new ArrayList<>());
+        final List<ScheduledFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            futures.add(scheduler.schedule(() -> runs.add(index), 100 - i, TimeUnit.SECONDS));
+        }
+        for (int i = 0; i < 100; i += 2)
+            futures.get(i).cancel(false);
+        final ScheduledFuture<?> rate = scheduler.scheduleAtFixedRate(() -> runs.add(-1), 1, 1, TimeUnit.MINUTES);
+        rate.cancel(false);
+        assertEquals(50, scheduler.getQueueSize());
+
+        clock.plus(100, TimeUnit.SECONDS, 100, TimeUnit.SECONDS);
+        assertEquals(50, runs.size());
+        for (final int index : runs)
+            assertEquals(1, index % 2);
+        assertEquals(0, scheduler.getQueueSize());
+    }
+
+    @Test
+    public void completionStage() throws Exception {
+        clock.setAwaitQuiescence(true);
+        final List<String> results = Collections.synchronizedList(new ArrayList<>());
+
+        // Chain the results of scheduled tasks without blocking any thread.
+        final WarpScheduledFuture<String> first = (WarpScheduledFuture<String>) scheduler.schedule(() -> "a", 1,
+                TimeUnit.MINUTES);
+        first.toCompletionStage().thenCompose(a -> {
+            final WarpScheduledFuture<String> second = (WarpScheduledFuture<String>) scheduler.schedule(() -> a + "b",
+                    1, TimeUnit.MINUTES);
+            return second.toCompletionStage();
+        }).thenAccept(results::add);
+
+        final WarpScheduledFuture<?> failing = (WarpScheduledFuture<?>) scheduler.schedule(() -> {
+            throw new IllegalStateException("failed");
+        }, 1, TimeUnit.MINUTES);
+        failing.toCompletionStage().whenComplete((r, e) -> results.add(e.getClass().getSimpleName()));
+
+        final WarpScheduledFuture<?> cancelled = (WarpScheduledFuture<?>) scheduler.schedule(() -> "c", 1,
+                TimeUnit.MINUTES);
+        cancelled.toCompletionStage().whenComplete((r, e) -> results.add(e.getClass().getSimpleName()));
+        cancelled.cancel(false);
+        assertEquals("[CancellationException]", results.toString());
+
+        clock.plus(1, TimeUnit.MINUTES, 1, TimeUnit.MINUTES);
+        assertEquals(2, results.size());
+        assertEquals("IllegalStateException", results.get(1));
+
+        clock.plus(1, TimeUnit.MINUTES, 1, TimeUnit.MINUTES);
+        assertEquals(3, results.size());
+        assertEquals("ab", results.get(2));
+
+        // A stage created after completion is already complete.
+        assertEquals("a", first.toCompletionStage().toCompletableFuture().getNow(null));
+    }
+
+    @Test
+    public void failingRunnables() throws Exception {
+        final WarpScheduledExecutorService inline = new WarpScheduledExecutorService(clock, true);
+        final WarpScheduledFuture<?> oneTime = (WarpScheduledFuture<?>) inline.schedule(() -> {
+            throw new IllegalStateException("once");
+        }, 1, TimeUnit.MINUTES);
+        final AtomicInteger runs = new AtomicInteger();
+        final WarpScheduledFuture<?> rate = (WarpScheduledFuture<?>) inline.scheduleAtFixedRate(() -> {
+            if (runs.incrementAndGet() == 2)
+                throw new IllegalStateException("second");
+        }, 1, 1, TimeUnit.MINUTES);
+        final CompletableFuture<?> oneTimeStage = oneTime.toCompletionStage().toCompletableFuture();
+        final CompletableFuture<?> rateStage = rate.toCompletionStage().toCompletableFuture();
+
+        clock.plusMinutes(1);
+        assertTrue(oneTime.isDone());
+        assertTrue(oneTimeStage.isCompletedExceptionally());
+        try {
+            oneTime.get();
+            fail("Should have failed");
+        } catch (final ExecutionException e) {
+            assertEquals("once", e.getCause().getMessage());
+        }
+        assertFalse(rate.isDone());
+
+        // A repeating task that fails ends exceptionally, and does not run again.
+        clock.plusMinutes(5);
+        assertEquals(2, runs.get());
+        assertTrue(rate.isDone());
+        assertFalse(rate.isCancelled());
+        assertTrue(rateStage.isCompletedExceptionally());
+        try {
+            rate.get();
+            fail("Should have failed");
+        } catch (final ExecutionException e) {
+            assertEquals("second", e.getCause().getMessage());
+        }
+
+        inline.shutdown();
+    }
+
+    @Test
+    public void pluggableExecutor() throws Exception {
+        clock.setAwaitQuiescence(true);
+        final WarpScheduledExecutorService virtual = new WarpScheduledExecutorService(clock,
+                WarpExecutors.newVirtualThreadPerTaskExecutor());
+        try {
+            // Many tasks sleeping at once.
+            final AtomicInteger counter = new AtomicInteger();
+            for (int i = 0; i < 500; i++) {
+                final int minutes = i % 10 + 1;
+                virtual.execute(() -> {
+                    try {
+                        WarpUtils.sleep(clock, minutes, TimeUnit.MINUTES);
+                        counter.incrementAndGet();
+                    } catch (final InterruptedException e) {
+                        fail(e.getMessage());
+                    }
+                });
+            }
+            // Let all of the tasks start sleeping before moving the clock.
+            clock.awaitQuiescence();
+
+            clock.plus(5, TimeUnit.MINUTES, 1, TimeUnit.MINUTES);
+            assertEquals(250, counter.get());
+            assertEquals(250, virtual.getInFlightCount());
+            clock.plus(5, TimeUnit.MINUTES, 1, TimeUnit.MINUTES);
+            assertEquals(500, counter.get());
+            assertEquals(0, virtual.getInFlightCount());
+
+            // Many tasks waiting for a result at once, which would exhaust the carrier threads if get pinned them.
+            final ScheduledFuture<String> result = virtual.schedule(() -> "done", 1, TimeUnit.MINUTES);
+            final AtomicInteger got = new AtomicInteger();
+            for (int i = 0; i < 500; i++) {
+                virtual.execute(() -> {
+                    try {
+                        if ("done".equals(result.get()))
+                            got.incrementAndGet();
+                    } catch (InterruptedException | ExecutionException e) {
+                        fail(e.getMessage());
+                    }
+                });
+            }
+            clock.awaitQuiescence();
+            assertEquals(500, virtual.getInFlightCount());
+            clock.plusMinutes(1);
+            assertEquals(500, got.get());
+            assertEquals(0, virtual.getInFlightCount());
+        } finally {
+            virtual.shutdown();
+        }
+    }
+
+    static final List<String> NOTES = Collections.synchronizedList(new ArrayList<>());
+
+    static class Note implements Runnable, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String text;
+        private int runs;
+
+        Note(final String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void run() {
+            runs++;
+            NOTES.add(text + runs);
+        }
+    }
+
+    @Test
+    public void checkpoint() throws Exception {
+        final WarpClock clock = new WarpClock(ZoneOffset.UTC, LocalDateTime.of(2017, 1, 1, 0, 0));
+        final WarpScheduledExecutorService scheduler = new WarpScheduledExecutorService(clock, true);
+        NOTES.clear();
+
+        final AtomicInteger ticks = new AtomicInteger();
+        final Runnable tick = () -> ticks.incrementAndGet();
+        scheduler.registerCommand("tick", tick);
+        scheduler.scheduleAtFixedRate(tick, 1, 1, TimeUnit.MINUTES);
+        scheduler.scheduleWithFixedDelay(new Note("note"), 90, 60, TimeUnit.MINUTES);
+        // Neither registered nor Serializable.
+        scheduler.schedule(() -> NOTES.add("lost"), 1, TimeUnit.HOURS);
+
+        clock.advance(30, TimeUnit.MINUTES);
+        final WarpCheckpoint checkpoint = scheduler.checkpoint();
+        assertEquals(2, checkpoint.getTaskCount());
+        assertEquals(1, checkpoint.getSkippedCount());
+        assertEquals(Arrays.asList("tick", null), checkpoint.getCommandIds());
+
+        clock.advance(2, TimeUnit.HOURS);
+        assertEquals(150, ticks.get());
+        assertEquals(Arrays.asList("lost", "note1", "note2"), NOTES);
+
+        // Branch from the checkpoint. The serialized note starts again from its state at the checkpoint.
+        ticks.set(0);
+        NOTES.clear();
+        final List<ScheduledFuture<?>> futures = scheduler.restore(checkpoint);
+        assertEquals(LocalDateTime.of(2017, 1, 1, 0, 30), clock.getDateTime());
+        assertEquals(2, futures.size());
+        assertEquals(2, scheduler.getQueueSize());
+        clock.advance(2, TimeUnit.HOURS);
+        assertEquals(120, ticks.get());
+        assertEquals(Arrays.asList("note1", "note2"), NOTES);
+
+        // A saved checkpoint can be restored too.
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(checkpoint);
+        }
+        final WarpCheckpoint saved;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            saved = (WarpCheckpoint) in.readObject();
+        }
+        ticks.set(0);
+        NOTES.clear();
+        scheduler.restore(saved);
+        assertTrue(futures.get(0).isCancelled());
+        clock.advance(1, TimeUnit.HOURS);
+        assertEquals(60, ticks.get());
+        assertEquals(Arrays.asList("note1"), NOTES);
+
+        // Commands must be registered in the scheduler that restores the checkpoint.
+        final WarpScheduledExecutorService other = new WarpScheduledExecutorService(clock, true);
+        try {
+            other.restore(checkpoint);
+            fail("Should have failed");
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+        other.shutdown();
+        scheduler.shutdown();
+    }
+
     @Test
     public void shutdownNow() {
         final AtomicInteger counter = new AtomicInteger(0);